@@ -0,0 +1,20 @@
+#!/bin/sh
+#
+# Builds and runs the host-side benchmarks (plain JDK, no Android SDK needed):
+#
+#   bench/run.sh                           - all benchmarks
+#   bench/run.sh NetDevReaderBenchmark     - a single one
+#
+# Fixtures are read relative to the project root.
+#
+cd "$(dirname "$0")/.." || exit 1
+OUT=bench/out
+mkdir -p $OUT
+javac -nowarn -d $OUT -sourcepath src:bench/src:bench/stubs bench/src/com/googlecode/android/wifi/tether/bench/*.java || exit 1
+if [ $# -eq 0 ]; then
+	set -- $(cd bench/src/com/googlecode/android/wifi/tether/bench && ls *Benchmark.java | sed 's/\.java$//')
+fi
+for benchmark in "$@"; do
+	echo "== $benchmark"
+	java -cp $OUT com.googlecode.android.wifi.tether.bench.$benchmark || exit 1
+done
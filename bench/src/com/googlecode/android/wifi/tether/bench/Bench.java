@@ -0,0 +1,65 @@
+/**
+ *  This program is free software; you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 3 of the License, or (at your option) any later
+ *  version.
+ *  You should have received a copy of the GNU General Public License along with
+ *  this program; if not, see <http://www.gnu.org/licenses/>.
+ *  Use this application at your own risk.
+ *
+ *  Copyright (c) 2009 by Harald Mueller and Sofia Lemons.
+ */
+
+package com.googlecode.android.wifi.tether.bench;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Minimal host-side micro-benchmark runner: time and heap-allocation per
+ * operation, measured on the calling thread after a warm-up.
+ *
+ * Allocation is read from com.sun.management.ThreadMXBean (HotSpot/OpenJDK);
+ * it is reported as -1 on VMs without it.
+ */
+public class Bench {
+
+	public interface Op {
+		/**
+		 * @return Any value derived from the work done, so it can not be optimized away.
+		 */
+		public long run();
+	}
+
+	private static final int WARMUP_ROUNDS = 5;
+
+	// Sink for Op-results
+	public static long blackhole = 0;
+
+	/**
+	 * Runs 'op' 'iterations' times (after warming up) and prints ns/op and bytes/op.
+	 */
+	public static void measure(String name, int iterations, Op op) {
+		for (int round = 0; round < WARMUP_ROUNDS; round++) {
+			for (int i = 0; i < iterations; i++) {
+				blackhole += op.run();
+			}
+		}
+		long bytesBefore = allocatedBytes();
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			blackhole += op.run();
+		}
+		long elapsed = System.nanoTime() - start;
+		long bytesAfter = allocatedBytes();
+		long bytes = bytesBefore < 0 || bytesAfter < 0 ? -1 : (bytesAfter - bytesBefore) / iterations;
+		System.out.println(String.format("  %-40s %10.1f ns/op %10d bytes/op", name, (double) elapsed / iterations, bytes));
+	}
+
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,117 @@
+/**
+ *  This program is free software; you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 3 of the License, or (at your option) any later
+ *  version.
+ *  You should have received a copy of the GNU General Public License along with
+ *  this program; if not, see <http://www.gnu.org/licenses/>.
+ *  Use this application at your own risk.
+ *
+ *  Copyright (c) 2009 by Harald Mueller and Sofia Lemons.
+ */
+
+package com.googlecode.android.wifi.tether.bench;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import com.googlecode.android.wifi.tether.data.MacAddress;
+import com.googlecode.android.wifi.tether.data.MacMap;
+import com.googlecode.android.wifi.tether.data.MacSet;
+
+/**
+ * MAC-lookups with MacSet/MacMap against ArrayList<String>.contains, which
+ * the whitelist and the client-list used before.
+ *
+ * Half of the looked-up MACs are present. Queries are separate String
+ * instances (as read from the lease-file), so equals() has to compare them.
+ *
+ * Usage: MacLookupBenchmark [size]...
+ */
+public class MacLookupBenchmark {
+
+	private static final int ITERATIONS = 1000000;
+	private static final int QUERIES = 1024;
+
+	public static void main(String[] args) {
+		int[] sizes = { 8, 32, 256 };
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			for (int i = 0; i < args.length; i++) {
+				sizes[i] = Integer.parseInt(args[i]);
+			}
+		}
+		for (int size : sizes) {
+			run(size);
+		}
+	}
+
+	private static void run(int size) {
+		System.out.println(size+" MACs");
+		Random random = new Random(size);
+
+		final ArrayList<String> list = new ArrayList<String>();
+		final MacSet set = new MacSet();
+		final MacMap<String> map = new MacMap<String>();
+		for (int i = 0; i < size; i++) {
+			String mac = randomMac(random);
+			list.add(mac);
+			set.add(MacAddress.parse(mac));
+			map.put(mac, mac);
+		}
+
+		final String[] queries = new String[QUERIES];
+		final long[] parsed = new long[QUERIES];
+		int hits = 0;
+		for (int i = 0; i < QUERIES; i++) {
+			String mac = i % 2 == 0 ? list.get(random.nextInt(size)) : randomMac(random);
+			queries[i] = new String(mac.toCharArray());
+			parsed[i] = MacAddress.parse(queries[i]);
+			if (list.contains(queries[i]) != set.contains(queries[i]) || list.contains(queries[i]) != map.containsKey(queries[i])) {
+				throw new IllegalStateException("Lookups disagree for "+queries[i]);
+			}
+			hits += list.contains(queries[i]) ? 1 : 0;
+		}
+		System.out.println("  "+hits+"/"+QUERIES+" queries present");
+
+		Bench.measure("ArrayList<String>.contains", ITERATIONS, new Bench.Op() {
+			int i = 0;
+			public long run() {
+				return list.contains(queries[this.i++ & (QUERIES - 1)]) ? 1 : 0;
+			}
+		});
+		Bench.measure("MacSet.contains(String)", ITERATIONS, new Bench.Op() {
+			int i = 0;
+			public long run() {
+				return set.contains(queries[this.i++ & (QUERIES - 1)]) ? 1 : 0;
+			}
+		});
+		Bench.measure("MacSet.contains(long)", ITERATIONS, new Bench.Op() {
+			int i = 0;
+			public long run() {
+				return set.contains(parsed[this.i++ & (QUERIES - 1)]) ? 1 : 0;
+			}
+		});
+		Bench.measure("MacMap.get(String)", ITERATIONS, new Bench.Op() {
+			int i = 0;
+			public long run() {
+				return map.get(queries[this.i++ & (QUERIES - 1)]) != null ? 1 : 0;
+			}
+		});
+		Bench.measure("MacAddress.parse", ITERATIONS, new Bench.Op() {
+			int i = 0;
+			public long run() {
+				return MacAddress.parse(queries[this.i++ & (QUERIES - 1)]);
+			}
+		});
+	}
+
+	private static String randomMac(Random random) {
+		StringBuilder mac = new StringBuilder();
+		for (int i = 0; i < 6; i++) {
+			int b = random.nextInt(256);
+			mac.append(i > 0 ? ":" : "").append(Character.forDigit(b >> 4, 16)).append(Character.forDigit(b & 15, 16));
+		}
+		return mac.toString();
+	}
+}
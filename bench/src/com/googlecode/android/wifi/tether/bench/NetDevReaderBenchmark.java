@@ -0,0 +1,113 @@
+/**
+ *  This program is free software; you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 3 of the License, or (at your option) any later
+ *  version.
+ *  You should have received a copy of the GNU General Public License along with
+ *  this program; if not, see <http://www.gnu.org/licenses/>.
+ *  Use this application at your own risk.
+ *
+ *  Copyright (c) 2009 by Harald Mueller and Sofia Lemons.
+ */
+
+package com.googlecode.android.wifi.tether.bench;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+
+import com.googlecode.android.wifi.tether.system.NetDevReader;
+
+/**
+ * NetDevReader against the former CoreTask.getDataTraffic() (readLinesFromFile,
+ * replace(':', ' ') and split(" +") per line) on recorded /proc/net/dev-files.
+ *
+ * Usage: NetDevReaderBenchmark [fixture device]...
+ */
+public class NetDevReaderBenchmark {
+
+	private static final int ITERATIONS = 20000;
+
+	private static final String[] DEFAULT_ARGS = {
+		"bench/fixtures/proc_net_dev_android.txt", "wlan0",
+		"bench/fixtures/proc_net_dev_android.txt", "rmnet",
+		"bench/fixtures/proc_net_dev_host.txt", "eth0",
+	};
+
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			args = DEFAULT_ARGS;
+		}
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			run(args[i], args[i + 1]);
+		}
+	}
+
+	private static void run(final String fixture, final String device) {
+		System.out.println(fixture+" ("+device+")");
+
+		final NetDevReader reader = new NetDevReader(fixture);
+		final long[] counters = new long[NetDevReader.COLUMNS];
+		long[] legacy = legacyGetDataTraffic(fixture, device);
+		reader.read(device, counters);
+		if (legacy[0] != counters[NetDevReader.RX_BYTES] || legacy[1] != counters[NetDevReader.TX_BYTES]) {
+			throw new IllegalStateException("Parsers disagree: legacy rx/tx="+legacy[0]+"/"+legacy[1]+
+					", NetDevReader rx/tx="+counters[NetDevReader.RX_BYTES]+"/"+counters[NetDevReader.TX_BYTES]);
+		}
+		System.out.println("  rx="+legacy[0]+" tx="+legacy[1]);
+
+		Bench.measure("legacy getDataTraffic", ITERATIONS, new Bench.Op() {
+			public long run() {
+				return legacyGetDataTraffic(fixture, device)[0];
+			}
+		});
+		Bench.measure("NetDevReader.read", ITERATIONS, new Bench.Op() {
+			public long run() {
+				reader.read(device, counters);
+				return counters[NetDevReader.RX_BYTES];
+			}
+		});
+		reader.close();
+	}
+
+	/*
+	 * CoreTask.getDataTraffic() and readLinesFromFile() before NetDevReader.
+	 */
+	private static long[] legacyGetDataTraffic(String filename, String device) {
+		long [] dataCount = new long[] {0, 0};
+		for (String line : readLinesFromFile(filename)) {
+			if (line == null || line.startsWith(device) == false)
+				continue;
+			line = line.replace(':', ' ');
+			String[] values = line.split(" +");
+			dataCount[0] += Long.parseLong(values[1]);
+			dataCount[1] += Long.parseLong(values[9]);
+		}
+		return dataCount;
+	}
+
+	private static ArrayList<String> readLinesFromFile(String filename) {
+		String line = null;
+		BufferedReader br = null;
+		ArrayList<String> lines = new ArrayList<String>();
+		try {
+			br = new BufferedReader(new InputStreamReader(new FileInputStream(filename)), 8192);
+			while ((line = br.readLine()) != null) {
+				lines.add(line.trim());
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to read "+filename, e);
+		} finally {
+			if (br != null) {
+				try {
+					br.close();
+				} catch (IOException e) {
+					// nothing
+				}
+			}
+		}
+		return lines;
+	}
+}
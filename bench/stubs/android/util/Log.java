@@ -0,0 +1,28 @@
+package android.util;
+
+/**
+ * Host-side stand-in for android.util.Log, used by the benchmarks only.
+ */
+public class Log {
+
+	public static int d(String tag, String msg) {
+		return println("D", tag, msg);
+	}
+
+	public static int i(String tag, String msg) {
+		return println("I", tag, msg);
+	}
+
+	public static int w(String tag, String msg) {
+		return println("W", tag, msg);
+	}
+
+	public static int e(String tag, String msg) {
+		return println("E", tag, msg);
+	}
+
+	private static int println(String level, String tag, String msg) {
+		System.err.println(level+"/"+tag+": "+msg);
+		return 0;
+	}
+}
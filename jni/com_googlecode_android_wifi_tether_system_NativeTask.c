@@ -2,6 +2,13 @@
 #include <stdlib.h>
 #include <string.h>
 #include <unistd.h>
+#include <errno.h>
+#include <fcntl.h>
+#include <poll.h>
+#include <signal.h>
+#include <time.h>
+#include <sys/types.h>
+#include <sys/wait.h>
 #include <sys/system_properties.h>
 
 #include "com_googlecode_android_wifi_tether_system_NativeTask.h"
@@ -39,6 +46,218 @@ JNIEXPORT jint JNICALL Java_com_googlecode_android_wifi_tether_system_NativeTask
   return (jint)exitcode;
 }
 
+#define EXEC_FAILED   -1
+#define EXEC_TIMEOUT  -2
+// Interval for checking whether the child has exited while reading its output
+#define EXEC_POLL_MS  100
+
+static long long now_ms()
+{
+  struct timespec ts;
+  clock_gettime(CLOCK_MONOTONIC, &ts);
+  return (long long)ts.tv_sec * 1000 + ts.tv_nsec / 1000000;
+}
+
+static void free_args(char **args, int count)
+{
+  int i;
+  for (i = 0; i < count; i++) {
+    free(args[i]);
+  }
+  free(args);
+}
+
+/*
+ * Runs argv[0] (searched in PATH if it has no '/') without a shell. stdout and
+ * stderr go into the direct buffer 'out' (starting at 0; the rest is drained
+ * and dropped), its position is set to the number of bytes captured.
+ * The process (and its process-group) is killed if it is still running after
+ * 'timeout' milliseconds (0 = no timeout).
+ * Returns the exit-code, 128+signal if it was killed by a signal, EXEC_TIMEOUT
+ * or EXEC_FAILED.
+ */
+JNIEXPORT jint JNICALL Java_com_googlecode_android_wifi_tether_system_NativeTask_exec
+  (JNIEnv *env, jclass class, jobjectArray argv, jlong timeout, jobject out)
+{
+  int argc = (*env)->GetArrayLength(env, argv);
+  int i;
+  if (argc == 0) {
+    return EXEC_FAILED;
+  }
+  char *buffer = NULL;
+  jlong capacity = 0;
+  if (out != NULL) {
+    buffer = (char *)(*env)->GetDirectBufferAddress(env, out);
+    capacity = (*env)->GetDirectBufferCapacity(env, out);
+    if (buffer == NULL || capacity < 0) {
+      return EXEC_FAILED;
+    }
+  }
+
+  char **args = calloc(argc + 1, sizeof(char *));
+  if (args == NULL) {
+    return EXEC_FAILED;
+  }
+  for (i = 0; i < argc; i++) {
+    jstring arg = (jstring)(*env)->GetObjectArrayElement(env, argv, i);
+    if (arg == NULL) {
+      free_args(args, i);
+      return EXEC_FAILED;
+    }
+    const char *argString = (*env)->GetStringUTFChars(env, arg, 0);
+    args[i] = strdup(argString);
+    (*env)->ReleaseStringUTFChars(env, arg, argString);
+    (*env)->DeleteLocalRef(env, arg);
+  }
+
+  int fds[2];
+  if (pipe(fds) != 0) {
+    free_args(args, argc);
+    return EXEC_FAILED;
+  }
+  // Processes forked concurrently by other threads must not inherit the pipe,
+  // or reading it would not see EOF before they exit (dup2() in the child
+  // clears the flag again). pipe2(O_CLOEXEC) is missing in older bionic.
+  fcntl(fds[0], F_SETFD, FD_CLOEXEC);
+  fcntl(fds[1], F_SETFD, FD_CLOEXEC);
+  long long deadline = timeout > 0 ? now_ms() + timeout : 0;
+  pid_t pid = fork();
+  if (pid == 0) {
+    // Own process-group, so that a timeout kills grandchildren as well
+    setpgid(0, 0);
+    dup2(fds[1], 1);
+    dup2(fds[1], 2);
+    close(fds[0]);
+    close(fds[1]);
+    execvp(args[0], args);
+    _exit(127);
+  }
+  free_args(args, argc);
+  close(fds[1]);
+  if (pid < 0) {
+    close(fds[0]);
+    return EXEC_FAILED;
+  }
+
+  int timedout = 0;
+  int reaped = 0;
+  int status = 0;
+  jlong length = 0;
+  char scratch[512];
+  struct pollfd pfd;
+  pfd.fd = fds[0];
+  pfd.events = POLLIN;
+  while (1) {
+    // Stop with the exit of the child itself: a process it started in the
+    // background may keep the pipe open much longer than that (or forever).
+    if (reaped == 0) {
+      pid_t result = waitpid(pid, &status, WNOHANG);
+      if (result == pid) {
+        reaped = 1;
+      }
+      else if (result < 0 && errno != EINTR) {
+        status = -1;
+        reaped = 1;
+      }
+    }
+    int wait = EXEC_POLL_MS;
+    if (reaped) {
+      // Only take what has been written already
+      if (length >= capacity) {
+        break;
+      }
+      wait = 0;
+    }
+    else if (deadline > 0) {
+      long long left = deadline - now_ms();
+      if (left <= 0) {
+        timedout = 1;
+        break;
+      }
+      if (left < wait) {
+        wait = (int)left;
+      }
+    }
+    int ready = poll(&pfd, 1, wait);
+    if (ready < 0) {
+      if (errno == EINTR) {
+        continue;
+      }
+      break;
+    }
+    if (ready == 0) {
+      if (reaped) {
+        break;
+      }
+      continue;
+    }
+    ssize_t count;
+    if (length < capacity) {
+      count = read(fds[0], buffer + length, capacity - length);
+    }
+    else {
+      count = read(fds[0], scratch, sizeof(scratch));
+    }
+    if (count < 0 && errno == EINTR) {
+      continue;
+    }
+    if (count <= 0) {
+      // EOF - the process closed its output
+      break;
+    }
+    if (length < capacity) {
+      length += count;
+    }
+  }
+  close(fds[0]);
+
+  while (timedout == 0 && reaped == 0) {
+    pid_t result = waitpid(pid, &status, deadline > 0 ? WNOHANG : 0);
+    if (result == pid) {
+      break;
+    }
+    if (result < 0 && errno != EINTR) {
+      status = -1;
+      break;
+    }
+    if (result == 0) {
+      if (now_ms() >= deadline) {
+        timedout = 1;
+      }
+      else {
+        usleep(10000);
+      }
+    }
+  }
+  if (timedout) {
+    kill(-pid, SIGKILL);
+    kill(pid, SIGKILL);
+    while (waitpid(pid, &status, 0) < 0 && errno == EINTR);
+  }
+
+  if (out != NULL) {
+    jclass bufferClass = (*env)->FindClass(env, "java/nio/Buffer");
+    jmethodID position = (*env)->GetMethodID(env, bufferClass, "position", "(I)Ljava/nio/Buffer;");
+    jobject ignored = (*env)->CallObjectMethod(env, out, position, (jint)length);
+    (*env)->DeleteLocalRef(env, ignored);
+    (*env)->DeleteLocalRef(env, bufferClass);
+  }
+
+  if (timedout) {
+    return EXEC_TIMEOUT;
+  }
+  if (status == -1) {
+    return EXEC_FAILED;
+  }
+  if (WIFEXITED(status)) {
+    return WEXITSTATUS(status);
+  }
+  if (WIFSIGNALED(status)) {
+    return 128 + WTERMSIG(status);
+  }
+  return EXEC_FAILED;
+}
+
 int property_get(const char *key, char *value, const char *default_value)
 {
     int len;
@@ -23,6 +23,14 @@ JNIEXPORT jstring JNICALL Java_com_googlecode_android_wifi_tether_system_NativeT
 JNIEXPORT jint JNICALL Java_com_googlecode_android_wifi_tether_system_NativeTask_runCommand
   (JNIEnv *, jclass, jstring);
 
+/*
+ * Class:     com_googlecode_android_wifi_tether_system_NativeTask
+ * Method:    exec
+ * Signature: ([Ljava/lang/String;JLjava/nio/ByteBuffer;)I
+ */
+JNIEXPORT jint JNICALL Java_com_googlecode_android_wifi_tether_system_NativeTask_exec
+  (JNIEnv *, jclass, jobjectArray, jlong, jobject);
+
 #ifdef __cplusplus
 }
 #endif
@@ -5,6 +5,7 @@ LOCAL_PATH := $(call my-dir)
 updater_src_files := \
         sha1.c\
 	install.c\
+	scriptcache.c\
 	tether.c\
 
 include $(CLEAR_VARS)
@@ -26,7 +26,9 @@
 #include <string.h>
 #include <time.h>
 
+#include <sys/ioctl.h>
 #include <sys/mount.h>
+#include <sys/socket.h>
 #include <sys/stat.h>
 #include <sys/syscall.h>
 #include <sys/types.h>
@@ -322,6 +324,124 @@ char* FileExistsFn(const char* name, State* state, int argc, Expr* argv[]) {
     return strdup("t");
 }
 
+// Readiness-waits: the condition is polled every WAIT_POLL_INTERVAL until
+// it holds or the timeout (milliseconds) expires.  They return "t" as soon
+// as the condition holds and "" on timeout - the script decides whether
+// that is an error.
+#define WAIT_POLL_INTERVAL 50000
+
+static long long monotonic_ms() {
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return ts.tv_sec * 1000LL + ts.tv_nsec / 1000000;
+}
+
+typedef int (*WaitCondition)(char** args);
+
+static char* wait_for(const char* name, State* state, int argc, Expr* argv[],
+                      int nargs, WaitCondition condition) {
+    if (argc != nargs + 1)
+        return ErrorAbort(state, "%s() expects %d args, got %d", name, nargs + 1, argc);
+    char** args = ReadVarArgs(state, argc, argv);
+    if (args == NULL)
+        return NULL;
+
+    long timeout = strtol(args[nargs], NULL, 10);
+    long long start = monotonic_ms();
+    int ready;
+    while ((ready = condition(args)) == 0 && monotonic_ms() - start < timeout) {
+        usleep(WAIT_POLL_INTERVAL);
+    }
+    fprintf(stderr, "%s(%s): %s after %lld ms\n", name, args[0],
+            ready ? "ready" : "timed out", monotonic_ms() - start);
+
+    int i;
+    for (i = 0; i < argc; ++i) {
+        free(args[i]);
+    }
+    free(args);
+    return strdup(ready ? "t" : "");
+}
+
+static int file_ready(char** args) {
+    return access(args[0], F_OK) == 0;
+}
+
+static int iface_up_ready(char** args) {
+    struct ifreq ifr;
+    int up = 0;
+    int sock = socket(AF_INET, SOCK_DGRAM, 0);
+    if (sock < 0)
+        return 0;
+    memset(&ifr, 0, sizeof(ifr));
+    strncpy(ifr.ifr_name, args[0], IFNAMSIZ - 1);
+    if (ioctl(sock, SIOCGIFFLAGS, &ifr) == 0)
+        up = (ifr.ifr_flags & IFF_UP) != 0;
+    close(sock);
+    return up;
+}
+
+static int prop_ready(char** args) {
+    char value[PROPERTY_VALUE_MAX];
+    property_get(args[0], value, "");
+    return strcmp(value, args[1]) == 0;
+}
+
+// Same match as kill_processes_by_name(): "Name:" of /proc/<pid>/status.
+// Zombies count as gone; they hold no sockets or files anymore.
+static int proc_gone_ready(char** args) {
+    DIR *dir = opendir("/proc");
+    struct dirent *next;
+    int found = 0;
+    if (!dir)
+        return 1;
+    while (found == 0 && (next = readdir(dir)) != NULL) {
+        FILE *status = NULL;
+        char filename[READ_BUF_SIZE];
+        char buffer[READ_BUF_SIZE];
+        char name[READ_BUF_SIZE];
+
+        if (next->d_name[0] < '0' || next->d_name[0] > '9')
+            continue;
+        sprintf(filename, "/proc/%s/status", next->d_name);
+        if (! (status = fopen(filename, "r")) )
+            continue;
+        if (fgets(buffer, READ_BUF_SIZE-1, status) != NULL &&
+            sscanf(buffer, "%*s %s", name) == 1 &&
+            strstr(name, args[0]) != NULL) {
+            found = 1;
+            while (fgets(buffer, READ_BUF_SIZE-1, status) != NULL) {
+                if (strncmp(buffer, "State:", 6) == 0) {
+                    found = strchr(buffer, 'Z') == NULL;
+                    break;
+                }
+            }
+        }
+        fclose(status);
+    }
+    closedir(dir);
+    return found == 0;
+}
+
+// wait_file(path, timeout)
+char* WaitFileFn(const char* name, State* state, int argc, Expr* argv[]) {
+    return wait_for(name, state, argc, argv, 1, file_ready);
+}
+
+// wait_iface_up(interface, timeout)
+char* WaitIfaceUpFn(const char* name, State* state, int argc, Expr* argv[]) {
+    return wait_for(name, state, argc, argv, 1, iface_up_ready);
+}
+
+// wait_prop(name, value, timeout)
+char* WaitPropFn(const char* name, State* state, int argc, Expr* argv[]) {
+    return wait_for(name, state, argc, argv, 2, prop_ready);
+}
+
+// wait_proc_gone(name, timeout)
+char* WaitProcGoneFn(const char* name, State* state, int argc, Expr* argv[]) {
+    return wait_for(name, state, argc, argv, 1, proc_gone_ready);
+}
 
 char* UnlinkFileFn(const char* name, State* state, int argc, Expr* argv[]) {
     if (argc != 1)
@@ -399,6 +519,69 @@ char* WhiteListMacsFn(const char* name, State* state, int argc, Expr* argv[]) {
   return (returncode == 0 ? strdup("t") : strdup(""));
 }
 
+static const char* iptables_restore_paths[] = {
+    "/data/data/com.googlecode.android.wifi.tether/bin/iptables-restore",
+    "/system/bin/iptables-restore",
+    "/system/xbin/iptables-restore",
+    NULL
+};
+
+// iptables_restore("rules-file")
+// Feeds the file to "iptables-restore --noflush"; every table is committed
+// atomically. Returns "" if no iptables-restore is available or it failed.
+char* IptablesRestoreFn(const char* name, State* state, int argc, Expr* argv[]) {
+    if (argc != 1)
+        return ErrorAbort(state, "%s() expects 1 arg, got %d", name, argc);
+    char *filename;
+    const char *binary = NULL;
+    int i;
+    if (ReadArgs(state, argv, 1, &filename) < 0)
+        return NULL;
+
+    for (i = 0; iptables_restore_paths[i] != NULL; i++) {
+        if (access(iptables_restore_paths[i], X_OK) == 0) {
+            binary = iptables_restore_paths[i];
+            break;
+        }
+    }
+    if (binary == NULL) {
+        fprintf(stderr, "iptables-restore not found\n");
+        free(filename);
+        return strdup("");
+    }
+    int fd = open(filename, O_RDONLY);
+    if (fd < 0) {
+        fprintf(stderr, "Can't open %s for read \n", filename);
+        free(filename);
+        return strdup("");
+    }
+    fprintf(stderr, "about to run: [%s --noflush < %s]\n", binary, filename);
+    free(filename);
+
+    pid_t pid = fork();
+    if (pid == 0) {
+        dup2(fd, 0);
+        close(fd);
+        execl(binary, binary, "--noflush", (char *) NULL);
+        _exit(127);
+    }
+    close(fd);
+    if (pid < 0) {
+        return strdup("");
+    }
+    int status;
+    while (waitpid(pid, &status, 0) < 0) {
+        if (errno != EINTR) {
+            return strdup("");
+        }
+    }
+    if (!WIFEXITED(status) || WEXITSTATUS(status) != 0) {
+        fprintf(stderr, "iptables-restore failed with status %d\n", status);
+        return strdup("");
+    }
+    return strdup("t");
+}
+
 char* ShowProgressFn(const char* name, State* state, int argc, Expr* argv[]) {
     if (argc != 2) {
         return ErrorAbort(state, "%s() expects 2 args, got %d", name, argc);
@@ -466,60 +649,112 @@ char* SetPropFn(const char* name, State* state, int argc, Expr* argv[]) {
     return strdup("");
 }
 
-// file_getprop(file, key)
-//
-//   interprets 'file' as a getprop-style file (key=value pairs, one
-//   per line, # comment lines and blank lines okay), and returns the value
-//   for 'key' (or "" if it isn't defined).
-char* GetCfgFn(const char* name, State* state, int argc, Expr* argv[]) {
-    char* result = NULL;
-    char* buffer = NULL;
-    char* key;
-    char *filename = "/data/data/com.googlecode.android.wifi.tether/conf/tether.conf";
-    if (ReadArgs(state, argv, 1, &key) < 0) {
-        return NULL;
+// Parsed tether.conf: key/value pairs point into the file-buffer, which
+// is kept as long as the file's inode, size and mtime do not change.
+#define CONFIG_FILE "/data/data/com.googlecode.android.wifi.tether/conf/tether.conf"
+#define MAX_FILE_GETPROP_SIZE    65536
+
+typedef struct ConfigEntry {
+    const char* key;
+    const char* value;
+    struct ConfigEntry* next;
+} ConfigEntry;
+
+static struct {
+    char* buffer;
+    ConfigEntry* entries;
+    ConfigEntry** buckets;
+    unsigned int bucket_mask;
+    ino_t ino;
+    off_t size;
+    time_t mtime;
+    int lookups;
+    int reads;
+} config;
+
+static unsigned int ConfigHash(const char* key) {
+    unsigned int hash = 5381;
+    while (*key) {
+        hash = hash * 33 + (unsigned char) *key++;
     }
+    return hash;
+}
 
+static void FreeConfig() {
+    free(config.buffer);
+    free(config.entries);
+    free(config.buckets);
+    config.buffer = NULL;
+    config.entries = NULL;
+    config.buckets = NULL;
+}
+
+// Reads and indexes tether.conf unless the loaded copy is still current.
+// Returns 0 on success; aborts the script otherwise.
+static int LoadConfig(const char* name, State* state) {
     struct stat st;
-    if (stat(filename, &st) < 0) {
+    if (stat(CONFIG_FILE, &st) < 0) {
         ErrorAbort(state, "%s: failed to stat \"%s\": %s",
-                   name, filename, strerror(errno));
-        goto done;
+                   name, CONFIG_FILE, strerror(errno));
+        return -1;
     }
-
-#define MAX_FILE_GETPROP_SIZE    65536
+    if (config.buffer != NULL && st.st_ino == config.ino &&
+        st.st_size == config.size && st.st_mtime == config.mtime) {
+        return 0;
+    }
+    FreeConfig();
 
     if (st.st_size > MAX_FILE_GETPROP_SIZE) {
         ErrorAbort(state, "%s too large for %s (max %d)",
-                   filename, name, MAX_FILE_GETPROP_SIZE);
-        goto done;
+                   CONFIG_FILE, name, MAX_FILE_GETPROP_SIZE);
+        return -1;
     }
 
-    buffer = malloc(st.st_size+1);
+    char* buffer = malloc(st.st_size+1);
     if (buffer == NULL) {
         ErrorAbort(state, "%s: failed to alloc %d bytes", name, st.st_size+1);
-        goto done;
+        return -1;
     }
 
-    FILE* f = fopen(filename, "rb");
+    FILE* f = fopen(CONFIG_FILE, "rb");
     if (f == NULL) {
         ErrorAbort(state, "%s: failed to open %s: %s",
-                   name, filename, strerror(errno));
-        goto done;
+                   name, CONFIG_FILE, strerror(errno));
+        free(buffer);
+        return -1;
     }
-
     if (fread(buffer, 1, st.st_size, f) != st.st_size) {
         ErrorAbort(state, "%s: failed to read %d bytes from %s",
-                   name, st.st_size+1, filename);
+                   name, st.st_size+1, CONFIG_FILE);
         fclose(f);
-        goto done;
+        free(buffer);
+        return -1;
     }
     buffer[st.st_size] = '\0';
-
     fclose(f);
+    config.reads++;
+
+    // At most one entry per line; two buckets per line keep chains short
+    int lines = 1;
+    char* p;
+    for (p = buffer; *p; ++p) {
+        if (*p == '\n') ++lines;
+    }
+    unsigned int bucket_count = 16;
+    while (bucket_count < 2 * lines) bucket_count <<= 1;
+    ConfigEntry* entries = malloc(lines * sizeof(ConfigEntry));
+    ConfigEntry** buckets = calloc(bucket_count, sizeof(ConfigEntry*));
+    if (entries == NULL || buckets == NULL) {
+        ErrorAbort(state, "%s: failed to alloc index for %d lines", name, lines);
+        free(entries);
+        free(buckets);
+        free(buffer);
+        return -1;
+    }
+    int count = 0;
 
     char* line = strtok(buffer, "\n");
-    do {
+    for (; line != NULL; line = strtok(NULL, "\n")) {
         // skip whitespace at start of line
         while (*line && isspace(*line)) ++line;
 
@@ -529,8 +764,11 @@ char* GetCfgFn(const char* name, State* state, int argc, Expr* argv[]) {
         char* equal = strchr(line, '=');
         if (equal == NULL) {
             ErrorAbort(state, "%s: malformed line \"%s\": %s not a prop file?",
-                       name, line, filename);
-            goto done;
+                       name, line, CONFIG_FILE);
+            free(entries);
+            free(buckets);
+            free(buffer);
+            return -1;
         }
 
         // trim whitespace between key and '='
@@ -538,9 +776,6 @@ char* GetCfgFn(const char* name, State* state, int argc, Expr* argv[]) {
         while (key_end > line && isspace(*key_end)) --key_end;
         key_end[1] = '\0';
 
-        // not the key we're looking for
-        if (strcmp(key, line) != 0) continue;
-
         // skip whitespace after the '=' to the start of the value
         char* val_start = equal+1;
         while(*val_start && isspace(*val_start)) ++val_start;
@@ -550,17 +785,56 @@ char* GetCfgFn(const char* name, State* state, int argc, Expr* argv[]) {
         while (val_end > val_start && isspace(*val_end)) --val_end;
         val_end[1] = '\0';
 
-        result = strdup(val_start);
-        break;
+        // the first occurrence of a key wins
+        unsigned int bucket = ConfigHash(line) & (bucket_count - 1);
+        ConfigEntry* e;
+        for (e = buckets[bucket]; e != NULL; e = e->next) {
+            if (strcmp(e->key, line) == 0) break;
+        }
+        if (e != NULL) continue;
+
+        e = &entries[count++];
+        e->key = line;
+        e->value = val_start;
+        e->next = buckets[bucket];
+        buckets[bucket] = e;
+    }
+
+    config.buffer = buffer;
+    config.entries = entries;
+    config.buckets = buckets;
+    config.bucket_mask = bucket_count - 1;
+    config.ino = st.st_ino;
+    config.size = st.st_size;
+    config.mtime = st.st_mtime;
+    return 0;
+}
+
+void GetConfigStats(int* lookups, int* reads) {
+    *lookups = config.lookups;
+    *reads = config.reads;
+}
 
-    } while ((line = strtok(NULL, "\n")));
+// file_getprop(file, key)
+//
+//   interprets 'file' as a getprop-style file (key=value pairs, one
+//   per line, # comment lines and blank lines okay), and returns the value
+//   for 'key' (or "" if it isn't defined).
+char* GetCfgFn(const char* name, State* state, int argc, Expr* argv[]) {
+    char* result = NULL;
+    char* key;
+    if (ReadArgs(state, argv, 1, &key) < 0) {
+        return NULL;
+    }
 
-    if (result == NULL) result = strdup("");
+    config.lookups++;
+    if (LoadConfig(name, state) == 0) {
+        ConfigEntry* e = config.buckets[ConfigHash(key) & config.bucket_mask];
+        while (e != NULL && strcmp(e->key, key) != 0) e = e->next;
+        result = strdup(e != NULL ? e->value : "");
+    }
 
-  done:
-    //free(filename);
     free(key);
-    free(buffer);
     return result;
 }
 
@@ -1015,12 +1289,17 @@ void RegisterInstallFunctions() {
     RegisterFunction("kill_process", KillProcessFn);
     RegisterFunction("kill_pidfile", KillProcessByPIDFn);
     RegisterFunction("file_exists", FileExistsFn);
+    RegisterFunction("wait_file", WaitFileFn);
+    RegisterFunction("wait_iface_up", WaitIfaceUpFn);
+    RegisterFunction("wait_prop", WaitPropFn);
+    RegisterFunction("wait_proc_gone", WaitProcGoneFn);
     RegisterFunction("file_write", WriteFileFn);
     RegisterFunction("file_unlink", UnlinkFileFn);
     RegisterFunction("load_wifi", LoadWifiFn);
     RegisterFunction("unload_wifi", UnloadWifiFn);    
     RegisterFunction("log", LogFn);
     RegisterFunction("whitelist_macs", WhiteListMacsFn);
+    RegisterFunction("iptables_restore", IptablesRestoreFn);
     RegisterFunction("show_progress", ShowProgressFn);
     RegisterFunction("set_progress", SetProgressFn);
     RegisterFunction("getprop", GetPropFn);
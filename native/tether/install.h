@@ -19,4 +19,7 @@
 
 void RegisterInstallFunctions();
 
+// Number of getcfg() calls and of reads of tether.conf during this run.
+void GetConfigStats(int* lookups, int* reads);
+
 #endif
@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Binary cache of a parsed edify script.
+//
+// File layout (native byte order; the cache never leaves the device):
+//
+//    CacheHeader
+//    CacheNode   nodes[node_count]    - children before their parent,
+//                                       the root is the last node
+//    u32         args[arg_count]      - node indices, one run per node
+//    char        strings[string_size] - NUL-terminated names
+//
+// Operators are stored by their index in kOperators; function calls by
+// name, resolved with FindFunction() when the cache is loaded.
+
+#include <errno.h>
+#include <fcntl.h>
+#include <limits.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <unistd.h>
+#include <sys/mman.h>
+#include <sys/stat.h>
+
+#include "scriptcache.h"
+
+#define CACHE_MAGIC   0x43415457  // "WTAC"
+#define CACHE_VERSION 1
+
+typedef struct {
+    u32 magic;
+    u32 version;
+    u8 digest[SHA1_MAC_LEN];
+    u32 node_count;
+    u32 arg_count;
+    u32 string_size;
+} CacheHeader;
+
+typedef struct {
+    u32 kind;     // 0: function call, otherwise index in kOperators + 1
+    u32 name;     // offset in the string table
+    u32 argc;
+    u32 argv;     // index of the first argument in args
+    int start, end;
+} CacheNode;
+
+// Functions the parser assigns without a lookup by name.
+static const Function kOperators[] = {
+    Literal, SequenceFn, ConcatFn, EqualityFn, InequalityFn,
+    LogicalAndFn, LogicalOrFn, LogicalNotFn, IfElseFn,
+};
+#define OPERATOR_COUNT (sizeof(kOperators) / sizeof(kOperators[0]))
+
+typedef struct {
+    CacheNode* nodes;
+    u32* args;
+    char* strings;
+    u32 node_count;
+    u32 arg_count;
+    u32 string_size;
+} Writer;
+
+static void Measure(Expr* expr, Writer* w) {
+    int i;
+    w->node_count++;
+    w->arg_count += expr->argc;
+    w->string_size += strlen(expr->name) + 1;
+    for (i = 0; i < expr->argc; ++i) {
+        Measure(expr->argv[i], w);
+    }
+}
+
+// Appends 'expr' after its children; returns its index or -1.
+static int Serialize(Expr* expr, Writer* w) {
+    u32 kind = 0;
+    u32 i;
+    for (i = 0; i < OPERATOR_COUNT; ++i) {
+        if (expr->fn == kOperators[i]) {
+            kind = i + 1;
+            break;
+        }
+    }
+    if (kind == 0 && FindFunction(expr->name) != expr->fn) {
+        fprintf(stderr, "cannot cache function \"%s\"\n", expr->name);
+        return -1;
+    }
+
+    u32* children = NULL;
+    if (expr->argc > 0) {
+        children = malloc(expr->argc * sizeof(u32));
+        for (i = 0; i < (u32) expr->argc; ++i) {
+            int child = Serialize(expr->argv[i], w);
+            if (child < 0) {
+                free(children);
+                return -1;
+            }
+            children[i] = child;
+        }
+    }
+
+    CacheNode* node = &w->nodes[w->node_count];
+    node->kind = kind;
+    node->name = w->string_size;
+    node->argc = expr->argc;
+    node->argv = w->arg_count;
+    node->start = expr->start;
+    node->end = expr->end;
+
+    size_t len = strlen(expr->name) + 1;
+    memcpy(w->strings + w->string_size, expr->name, len);
+    w->string_size += len;
+    if (children != NULL) {
+        memcpy(w->args + w->arg_count, children, expr->argc * sizeof(u32));
+        w->arg_count += expr->argc;
+        free(children);
+    }
+    return w->node_count++;
+}
+
+static int WriteFully(int fd, const void* data, size_t size) {
+    const char* p = data;
+    while (size > 0) {
+        ssize_t n = write(fd, p, size);
+        if (n < 0) {
+            if (errno == EINTR) continue;
+            return -1;
+        }
+        p += n;
+        size -= n;
+    }
+    return 0;
+}
+
+int SaveScriptCache(const char* filename, const u8 digest[SHA1_MAC_LEN],
+                    Expr* root) {
+    Writer w;
+    memset(&w, 0, sizeof(w));
+    Measure(root, &w);
+    w.nodes = malloc(w.node_count * sizeof(CacheNode));
+    w.args = malloc((w.arg_count + 1) * sizeof(u32));
+    w.strings = malloc(w.string_size);
+
+    CacheHeader header;
+    header.magic = CACHE_MAGIC;
+    header.version = CACHE_VERSION;
+    memcpy(header.digest, digest, SHA1_MAC_LEN);
+    header.node_count = w.node_count;
+    header.arg_count = w.arg_count;
+    header.string_size = w.string_size;
+
+    w.node_count = w.arg_count = w.string_size = 0;
+    int result = -1;
+    if (Serialize(root, &w) < 0) {
+        goto done;
+    }
+
+    // Written under a temporary name; a partial cache is never picked up.
+    char tmp_name[PATH_MAX];
+    snprintf(tmp_name, sizeof(tmp_name), "%s.tmp", filename);
+    int fd = open(tmp_name, O_WRONLY | O_CREAT | O_TRUNC, 0644);
+    if (fd < 0) {
+        fprintf(stderr, "cannot create %s: %s\n", tmp_name, strerror(errno));
+        goto done;
+    }
+    if (WriteFully(fd, &header, sizeof(header)) < 0 ||
+        WriteFully(fd, w.nodes, w.node_count * sizeof(CacheNode)) < 0 ||
+        WriteFully(fd, w.args, w.arg_count * sizeof(u32)) < 0 ||
+        WriteFully(fd, w.strings, w.string_size) < 0) {
+        fprintf(stderr, "cannot write %s: %s\n", tmp_name, strerror(errno));
+        close(fd);
+        unlink(tmp_name);
+        goto done;
+    }
+    close(fd);
+    if (rename(tmp_name, filename) < 0) {
+        fprintf(stderr, "cannot rename %s: %s\n", tmp_name, strerror(errno));
+        unlink(tmp_name);
+        goto done;
+    }
+    result = 0;
+
+  done:
+    free(w.nodes);
+    free(w.args);
+    free(w.strings);
+    return result;
+}
+
+Expr* LoadScriptCache(const char* filename, const u8 digest[SHA1_MAC_LEN]) {
+    int fd = open(filename, O_RDONLY);
+    if (fd < 0) {
+        return NULL;
+    }
+    struct stat st;
+    if (fstat(fd, &st) < 0 || st.st_size < (off_t) sizeof(CacheHeader)) {
+        close(fd);
+        return NULL;
+    }
+    size_t size = st.st_size;
+    char* data = mmap(NULL, size, PROT_READ, MAP_PRIVATE, fd, 0);
+    close(fd);
+    if (data == MAP_FAILED) {
+        return NULL;
+    }
+
+    const CacheHeader* header = (const CacheHeader*) data;
+    if (header->magic != CACHE_MAGIC || header->version != CACHE_VERSION ||
+        memcmp(header->digest, digest, SHA1_MAC_LEN) != 0) {
+        // Script (or cache-format) changed
+        munmap(data, size);
+        return NULL;
+    }
+    u32 node_count = header->node_count;
+    u32 arg_count = header->arg_count;
+    u32 string_size = header->string_size;
+    if (node_count == 0 || string_size == 0 || string_size > size ||
+        node_count > size / sizeof(CacheNode) || arg_count > size / sizeof(u32) ||
+        size != sizeof(CacheHeader) + node_count * sizeof(CacheNode) +
+                arg_count * sizeof(u32) + string_size) {
+        goto invalid;
+    }
+    const CacheNode* nodes = (const CacheNode*) (data + sizeof(CacheHeader));
+    const u32* args = (const u32*) (nodes + node_count);
+    const char* strings = (const char*) (args + arg_count);
+    if (strings[string_size - 1] != '\0') {
+        goto invalid;
+    }
+
+    Expr* exprs = malloc(node_count * sizeof(Expr));
+    Expr** argv = malloc((arg_count + 1) * sizeof(Expr*));
+    u32 i, j;
+    for (i = 0; i < node_count; ++i) {
+        const CacheNode* node = &nodes[i];
+        if (node->kind > OPERATOR_COUNT || node->name >= string_size ||
+            node->argv > arg_count || node->argc > arg_count - node->argv) {
+            goto broken;
+        }
+        Expr* e = &exprs[i];
+        e->name = (char*) strings + node->name;
+        e->fn = node->kind == 0 ? FindFunction(e->name) : kOperators[node->kind - 1];
+        if (e->fn == NULL) {
+            // Script uses a function this binary no longer has
+            goto broken;
+        }
+        e->argc = node->argc;
+        e->argv = node->argc > 0 ? argv + node->argv : NULL;
+        for (j = 0; j < node->argc; ++j) {
+            // Only references to earlier nodes - no cycles
+            u32 child = args[node->argv + j];
+            if (child >= i) {
+                goto broken;
+            }
+            argv[node->argv + j] = &exprs[child];
+        }
+        e->start = node->start;
+        e->end = node->end;
+    }
+    return &exprs[node_count - 1];
+
+  broken:
+    free(exprs);
+    free(argv);
+  invalid:
+    fprintf(stderr, "ignoring %s\n", filename);
+    munmap(data, size);
+    return NULL;
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#ifndef _TETHER_SCRIPTCACHE_H_
+#define _TETHER_SCRIPTCACHE_H_
+
+#include "edify/expr.h"
+#include "sha1.h"
+
+// Returns the parse tree stored in 'filename' if it was built from a
+// script with the given SHA1; NULL if the cache is missing, stale or
+// invalid.  Must be called after FinishRegistration().  The strings of
+// the returned tree point into the mapped file, which stays mapped.
+Expr* LoadScriptCache(const char* filename, const u8 digest[SHA1_MAC_LEN]);
+
+// Serializes the parse tree of a script with the given SHA1 to
+// 'filename'.  Returns 0 on success.
+int SaveScriptCache(const char* filename, const u8 digest[SHA1_MAC_LEN],
+                    Expr* root);
+
+#endif
@@ -24,10 +24,14 @@
 #include "edify/expr.h"
 #include "tether.h"
 #include "install.h"
+#include "scriptcache.h"
 
 // Where in the package we expect to find the edify script to execute.
 #define SCRIPT_NAME "/data/data/com.googlecode.android.wifi.tether/conf/tether.edify"
 
+// Parse tree of the script; rebuilt whenever the script's SHA1 changes.
+#define CACHE_NAME "/data/data/com.googlecode.android.wifi.tether/var/tether.edify.cache"
+
 int main(int argc, char** argv) {
 FILE *f;
     /*
@@ -72,15 +76,23 @@ FILE *f;
     RegisterInstallFunctions();
     FinishRegistration();
 
-    // Parse the script.
-
-    Expr* root;
-    int error_count = 0;
-    yy_scan_string(script);
-    int error = yyparse(&root, &error_count);
-    if (error != 0 || error_count > 0) {
-        fprintf(stderr, "%d parse errors\n", error_count);
-        return 6;
+    // Parse the script - unless it has not changed since the last run.
+
+    u8 digest[SHA1_MAC_LEN];
+    const u8* addr[1] = { (const u8*) script };
+    size_t len[1] = { st.st_size };
+    sha1_vector(1, addr, len, digest);
+
+    Expr* root = LoadScriptCache(CACHE_NAME, digest);
+    if (root == NULL) {
+        int error_count = 0;
+        yy_scan_string(script);
+        int error = yyparse(&root, &error_count);
+        if (error != 0 || error_count > 0) {
+            fprintf(stderr, "%d parse errors\n", error_count);
+            return 6;
+        }
+        SaveScriptCache(CACHE_NAME, digest, root);
     }
 
     // Evaluate the parsed script.
@@ -97,6 +109,15 @@ FILE *f;
     state.errmsg = NULL;
 
     char* result = Evaluate(&state, root);
+
+    int lookups, reads;
+    GetConfigStats(&lookups, &reads);
+    fprintf(stderr, "%s: %d getcfg() calls, tether.conf read %d time(s)\n",
+            updater_info.action, lookups, reads);
+    if (updater_info.log_fd != NULL) {
+        fprintf(updater_info.log_fd, "<!-- %s: %d getcfg() calls, tether.conf read %d time(s) -->\n",
+                updater_info.action, lookups, reads);
+    }
     if (result == NULL) {
         if (state.errmsg == NULL) {
             fprintf(stderr, "script aborted (no error message)\n");
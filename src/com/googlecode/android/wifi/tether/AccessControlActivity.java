@@ -14,11 +14,10 @@ package com.googlecode.android.wifi.tether;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Enumeration;
-import java.util.Hashtable;
 
 import com.googlecode.android.wifi.tether.data.ClientAdapter;
 import com.googlecode.android.wifi.tether.data.ClientData;
+import com.googlecode.android.wifi.tether.data.MacMap;
 import com.googlecode.android.wifi.tether.system.CoreTask;
 
 import android.R.drawable;
@@ -234,11 +233,13 @@ public class AccessControlActivity extends ListActivity {
 		for (String tmpMac : clientMacRemoveList) {
 			this.clientAdapter.removeClient(tmpMac);
 		}
+		// Connection-state of listed clients may have changed
+		this.clientAdapter.notifyDataSetChanged();
     }
 
 	private ArrayList<ClientData> getCurrentClientData() {
         ArrayList<ClientData> clientDataList = new ArrayList<ClientData>();
-        Hashtable<String,ClientData> leases = null;
+        MacMap<ClientData> leases = null;
         try {
 			leases = application.coretask.getLeases();
 		} catch (Exception e) {
@@ -249,10 +250,9 @@ public class AccessControlActivity extends ListActivity {
 	        	ClientData clientData = new ClientData();
 	        	clientData.setConnected(false);
 	        	clientData.setIpAddress(getString(R.string.accesscontrol_activity_not_connected));
-	        	if (leases.containsKey(macAddress)) {
-	        		clientData = leases.get(macAddress);
+	        	if (leases != null && leases.containsKey(macAddress)) {
+	        		clientData = leases.remove(macAddress);
 	            	Log.d(TAG, clientData.isConnected()+" - "+clientData.getIpAddress());
-	        		leases.remove(macAddress);
 	        	}
 	        	clientData.setAccessAllowed(true);
 	        	clientData.setMacAddress(macAddress);
@@ -260,11 +260,7 @@ public class AccessControlActivity extends ListActivity {
 	        }
         }
         if (leases != null) {
-	        Enumeration<String> enumLeases = leases.keys();
-	        while (enumLeases.hasMoreElements()) {
-	        	String macAddress = enumLeases.nextElement();
-	        	clientDataList.add(leases.get(macAddress));
-	        }
+	        clientDataList.addAll(leases.values());
         }
         
         // Reset client-mac-lists
@@ -15,8 +15,10 @@ package com.googlecode.android.wifi.tether;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStreamReader;
+import java.util.Date;
 
 import com.googlecode.android.wifi.tether.system.CoreTask;
+import com.googlecode.android.wifi.tether.system.PhaseTracer;
 
 import android.app.Activity;
 import android.os.Bundle;
@@ -34,6 +36,7 @@ public class LogActivity extends Activity {
 	 	".done { font-family:Arial; font-size:80%; color: #2ff425} "+
 	 	".failed { font-family:Arial; font-size:80%; color: #ff3636} "+
 	 	".skipped { font-family:Arial; font-size:80%; color: #6268e5} "+
+	 	".phase { font-family:Arial; font-size:80%; width:100%} "+
 	 	"</style> "+
 	 	"</head><body>";
 	private static final String FOOTER = "</body></html>";
@@ -63,9 +66,35 @@ public class LogActivity extends Activity {
     }
 	
     private void setWebViewContent() {
-    	this.webView.loadDataWithBaseURL("fake://fakeme",HEADER+this.readLogfile()+FOOTER , "text/html", "UTF-8", "fake://fakeme");
+    	this.webView.loadDataWithBaseURL("fake://fakeme",HEADER+this.readLogfile()+this.readPhaseTrace()+FOOTER , "text/html", "UTF-8", "fake://fakeme");
     }
     
+    /*
+     * Per-phase breakdown of the last starts/stops/restarts (newest first).
+     */
+    private String readPhaseTrace() {
+    	StringBuilder html = new StringBuilder();
+    	for (PhaseTracer.Session session : this.application.phaseTracer.read()) {
+    		boolean failed = session.getState() == TetherService.STATE_FAILURE_LOG ||
+    				session.getState() == TetherService.STATE_FAILURE_EXE;
+    		long total = session.getTotal();
+    		html.append("<div class=\"date\">").append(new Date(session.getTimestamp())).append("</div>");
+    		html.append("<div class=\"action\">").append(session.getKindName()).append(": ").append(total).append(" ms</div>");
+    		html.append("<table class=\"phase\">");
+    		for (int i = 0; i < session.getPhaseCount(); i++) {
+    			int duration = session.getDuration(i);
+    			html.append("<tr><td>").append(PhaseTracer.getPhaseName(session.getPhase(i)));
+    			// Phases of the startup-pipeline overlap; the offset shows when they began
+    			html.append("</td><td align=\"right\">+").append(session.getOffset(i)).append(" ms");
+    			html.append("</td><td align=\"right\">").append(duration).append(" ms");
+    			html.append("</td><td align=\"right\">").append(total > 0 ? duration * 100 / total : 0).append("%</td></tr>");
+    		}
+    		html.append("</table>");
+    		html.append(failed ? "<div class=\"failed\">failed</div>" : "<div class=\"done\">done</div>").append("<hr>");
+    	}
+    	return html.toString();
+    }
+
     private String readLogfile(){
         FileInputStream fis = null;
         InputStreamReader isr = null;
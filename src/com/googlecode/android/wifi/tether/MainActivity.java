@@ -14,6 +14,9 @@ package com.googlecode.android.wifi.tether;
 
 import java.util.Locale;
 
+import com.googlecode.android.wifi.tether.system.TrafficHistory;
+import com.googlecode.android.wifi.tether.ui.TrafficGraphView;
+
 import android.R.drawable;
 import android.app.Activity;
 import android.app.AlertDialog;
@@ -63,6 +66,7 @@ public class MainActivity extends Activity {
 	private RelativeLayout batteryTemperatureLayout = null;
 	
 	private RelativeLayout trafficRow = null;
+	private TrafficGraphView trafficGraph = null;
 	private TextView downloadText = null;
 	private TextView uploadText = null;
 	private TextView downloadRateText = null;
@@ -133,6 +137,8 @@ public class MainActivity extends Activity {
         batteryTemperatureLayout = (RelativeLayout)findViewById(R.id.layoutBatteryTemp);
 
         trafficRow = (RelativeLayout)findViewById(R.id.trafficRow);
+        trafficGraph = (TrafficGraphView)findViewById(R.id.trafficGraph);
+        trafficGraph.setHistory(this.application.trafficHistory, TrafficHistory.SECONDS);
         downloadText = (TextView)findViewById(R.id.trafficDown);
         uploadText = (TextView)findViewById(R.id.trafficUp);
         downloadRateText = (TextView)findViewById(R.id.trafficDownRate);
@@ -493,6 +499,8 @@ public class MainActivity extends Activity {
         		downloadRateText.setText(MainActivity.this.formatCount(downloadRate, true));
         		downloadRateText.invalidate();
         		uploadRateText.invalidate();
+        		
+        		trafficGraph.refresh();
              }
          }
      };	
@@ -17,6 +17,7 @@ import java.util.ArrayList;
 import java.util.regex.Pattern;
 
 import com.googlecode.android.wifi.tether.system.Configuration;
+import com.googlecode.android.wifi.tether.system.CoreTask;
 
 import android.R.drawable;
 import android.app.AlertDialog;
@@ -638,7 +639,7 @@ public class SetupActivity extends PreferenceActivity implements OnSharedPrefere
 	    				message = getString(R.string.setup_activity_info_device_changedto)+" '"+newDevice+"'.";
 	    				try{
 		    				if (TetherService.singleton != null && TetherService.singleton.getState() == TetherService.STATE_RUNNING) {
-		    					TetherService.singleton.restart();
+		    					TetherService.singleton.reconfigure();
 		    				}
 	    				}
 	    				catch (Exception ex) {
@@ -660,7 +661,7 @@ public class SetupActivity extends PreferenceActivity implements OnSharedPrefere
 	    				message = getString(R.string.setup_activity_info_setup_changedto)+" '"+newSetup+"'.";
 	    				try{
 	    					if (TetherService.singleton != null && TetherService.singleton.getState() == TetherService.STATE_RUNNING) {
-	    						TetherService.singleton.restart();
+	    						TetherService.singleton.reconfigure();
 		    				}
 	    				}
 	    				catch (Exception ex) {
@@ -679,7 +680,7 @@ public class SetupActivity extends PreferenceActivity implements OnSharedPrefere
 	    				message = getString(R.string.setup_activity_info_ssid_changedto)+" '"+newSSID+"'.";
 	    				try{
 	    					if (TetherService.singleton != null && TetherService.singleton.getState() == TetherService.STATE_RUNNING) {
-	    						TetherService.singleton.restart();
+	    						TetherService.singleton.reconfigure();
 		    				}
 	    				}
 	    				catch (Exception ex) {
@@ -698,7 +699,7 @@ public class SetupActivity extends PreferenceActivity implements OnSharedPrefere
 	    				message = "Mac Set to '"+newMAC+"'.";
 	    				try{
 	    					if (TetherService.singleton != null && TetherService.singleton.getState() == TetherService.STATE_RUNNING) {
-	    						TetherService.singleton.restart();
+	    						TetherService.singleton.reconfigure();
 		    				}
 	    				}
 	    				catch (Exception ex) {
@@ -729,7 +730,7 @@ public class SetupActivity extends PreferenceActivity implements OnSharedPrefere
 	    				message = getString(R.string.setup_activity_info_channel_changedto)+" '"+newChannel+"'.";
 	    				try{
 	    					if (TetherService.singleton != null && TetherService.singleton.getState() == TetherService.STATE_RUNNING) {
-	    						TetherService.singleton.restart();
+	    						TetherService.singleton.reconfigure();
 		    				}
 	    				}
 	    				catch (Exception ex) {
@@ -744,7 +745,7 @@ public class SetupActivity extends PreferenceActivity implements OnSharedPrefere
 		    	else if (key.equals("wakelockpref")) {
 					try {
 						boolean disableWakeLock = sharedPreferences.getBoolean("wakelockpref", true);
-						if (application.coretask.isNatEnabled() && application.coretask.isProcessRunning("bin/dnsmasq")) {
+						if (application.coretask.isNatEnabled() && application.coretask.isProcessRunning("bin/dnsmasq", CoreTask.DATA_FILE_PATH+CoreTask.DNSMASQ_PIDFILE)) {
 							if (disableWakeLock){
 								SetupActivity.this.application.releaseWakeLock();
 								message = getString(R.string.setup_activity_info_wakelock_disabled);
@@ -800,7 +801,7 @@ public class SetupActivity extends PreferenceActivity implements OnSharedPrefere
 			    		// Restarting
 						try{
 							if (TetherService.singleton != null && TetherService.singleton.getState() == TetherService.STATE_RUNNING) {
-								TetherService.singleton.restart();
+								TetherService.singleton.reconfigure();
 		    				}
 						}
 						catch (Exception ex) {
@@ -821,7 +822,7 @@ public class SetupActivity extends PreferenceActivity implements OnSharedPrefere
 			    		// Restarting
 						try{
 							if (TetherService.singleton != null && TetherService.singleton.getState() == TetherService.STATE_RUNNING) {
-								TetherService.singleton.restart();
+								TetherService.singleton.reconfigure();
 		    				}
 						}
 						catch (Exception ex) {
@@ -856,7 +857,7 @@ public class SetupActivity extends PreferenceActivity implements OnSharedPrefere
 			    		// Restarting
 						try{
 							if (TetherService.singleton != null && TetherService.singleton.getState() == TetherService.STATE_RUNNING) {
-								TetherService.singleton.restart();
+								TetherService.singleton.reconfigure();
 		    				}
 						}
 						catch (Exception ex) {
@@ -879,7 +880,7 @@ public class SetupActivity extends PreferenceActivity implements OnSharedPrefere
 			    		// Restarting
 						try{
 							if (TetherService.singleton != null && TetherService.singleton.getState() == TetherService.STATE_RUNNING) {
-								TetherService.singleton.restart();
+								TetherService.singleton.reconfigure();
 		    				}
 						}
 						catch (Exception ex) {
@@ -901,7 +902,7 @@ public class SetupActivity extends PreferenceActivity implements OnSharedPrefere
 		    			// Restarting
 						try{
 							if (TetherService.singleton != null && TetherService.singleton.getState() == TetherService.STATE_RUNNING) {
-								TetherService.singleton.restart();
+								TetherService.singleton.reconfigure();
 		    				}
 						}
 						catch (Exception ex) {
@@ -923,7 +924,7 @@ public class SetupActivity extends PreferenceActivity implements OnSharedPrefere
 		    			// Restarting
 						try{
 							if (TetherService.singleton != null && TetherService.singleton.getState() == TetherService.STATE_RUNNING) {
-								TetherService.singleton.restart();
+								TetherService.singleton.reconfigure();
 		    				}
 						}
 						catch (Exception ex) {
@@ -963,7 +964,7 @@ public class SetupActivity extends PreferenceActivity implements OnSharedPrefere
 		    			// Restarting
 						try{
 							if (TetherService.singleton != null && TetherService.singleton.getState() == TetherService.STATE_RUNNING) {
-								TetherService.singleton.restart();
+								TetherService.singleton.reconfigure();
 		    				}
 							message = getString(R.string.setup_activity_info_lan_changedto)+" '"+lannetwork+"'.";
 							SetupActivity.this.currentLAN = lannetwork;
@@ -986,7 +987,7 @@ public class SetupActivity extends PreferenceActivity implements OnSharedPrefere
 		    			// Restarting
 						try{
 							if (TetherService.singleton != null && TetherService.singleton.getState() == TetherService.STATE_RUNNING) {
-								TetherService.singleton.restart();
+								TetherService.singleton.reconfigure();
 		    				}
 							SetupActivity.this.currentMssclampingEnabled = mssclamping;
 						}
@@ -1007,7 +1008,7 @@ public class SetupActivity extends PreferenceActivity implements OnSharedPrefere
 		    			// Restarting
 						try{
 							if (TetherService.singleton != null && TetherService.singleton.getState() == TetherService.STATE_RUNNING) {
-								TetherService.singleton.restart();
+								TetherService.singleton.reconfigure();
 		    				}
 							SetupActivity.this.currentRoutefixEnabled = routefix;
 						}
@@ -1028,7 +1029,7 @@ public class SetupActivity extends PreferenceActivity implements OnSharedPrefere
 		    			// Restarting
 						try{
 							if (TetherService.singleton != null && TetherService.singleton.getState() == TetherService.STATE_RUNNING) {
-								TetherService.singleton.restart();
+								TetherService.singleton.reconfigure();
 		    				}
 							SetupActivity.this.currentPrimaryDNS = dns;
 						}
@@ -1049,7 +1050,7 @@ public class SetupActivity extends PreferenceActivity implements OnSharedPrefere
 		    			// Restarting
 						try{
 							if (TetherService.singleton != null && TetherService.singleton.getState() == TetherService.STATE_RUNNING) {
-								TetherService.singleton.restart();
+								TetherService.singleton.reconfigure();
 		    				}
 							SetupActivity.this.currentSecondaryDNS = dns;
 						}
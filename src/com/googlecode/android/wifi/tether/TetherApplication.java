@@ -12,18 +12,24 @@
 
 package com.googlecode.android.wifi.tether;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.Properties;
 
 import com.googlecode.android.wifi.tether.data.ClientData;
 import com.googlecode.android.wifi.tether.system.Configuration;
 import com.googlecode.android.wifi.tether.system.CoreTask;
+import com.googlecode.android.wifi.tether.system.ShellSession;
+import com.googlecode.android.wifi.tether.system.PhaseTracer;
+import com.googlecode.android.wifi.tether.system.TrafficHistory;
 import com.googlecode.android.wifi.tether.system.WebserviceTask;
 
 import android.app.Application;
@@ -96,6 +102,10 @@ public class TetherApplication extends Application {
 	
 	// Whitelist
 	public CoreTask.Whitelist whitelist = null;
+	// iptables-restore rulesets
+	public CoreTask.IptablesRuleset iptablesRuleset = null;
+	// Whitelist as ipset (hash:mac)
+	public CoreTask.WhitelistIpset whitelistIpset = null;
 	// Supplicant
 	public CoreTask.WpaSupplicant wpasupplicant = null;
 	// TiWlan.conf
@@ -104,6 +114,11 @@ public class TetherApplication extends Application {
 	public CoreTask.TetherConfig tethercfg = null;
 	// hostapd
 	public CoreTask.HostapdConfig hostapdcfg = null;
+	// Traffic-history (var/traffic.history)
+	public TrafficHistory trafficHistory = null;
+
+	// Timing of start/stop/restart-phases
+	public PhaseTracer phaseTracer = null;
 
 	
 	// CoreTask
@@ -143,6 +158,10 @@ public class TetherApplication extends Application {
         // Whitelist
         this.whitelist = this.coretask.new Whitelist();
         
+        // iptables rulesets
+        this.iptablesRuleset = this.coretask.new IptablesRuleset();
+        this.whitelistIpset = this.coretask.new WhitelistIpset();
+        
         // Supplicant config
         this.wpasupplicant = this.coretask.new WpaSupplicant();
         
@@ -158,6 +177,13 @@ public class TetherApplication extends Application {
         
     	// hostapd
     	this.hostapdcfg = this.coretask.new HostapdConfig();
+    	
+    	// Traffic-history
+    	this.trafficHistory = new TrafficHistory(CoreTask.DATA_FILE_PATH+"/var/traffic.history");
+    	this.trafficHistory.open();
+
+    	// Phase-trace
+    	this.phaseTracer = new PhaseTracer(CoreTask.DATA_FILE_PATH+"/var/phase.trace");
 
         // Powermanagement
         powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
@@ -446,6 +472,9 @@ public class TetherApplication extends Application {
 			}			
 		}
 		
+		// NAT-rules are applied by the app with iptables-restore (conf/iptables.*) if available
+		this.tethercfg.put("iptables.restore", this.coretask.getIptablesRestoreBinary() != null ? "true" : "false");
+		
 		// DNS Ip-Range
         String[] lanparts = lannetwork.split("\\.");
         this.tethercfg.put("dhcp.iprange", lanparts[0]+"."+lanparts[1]+"."+lanparts[2]+".100,"+lanparts[0]+"."+lanparts[1]+"."+lanparts[2]+".108,12h");
@@ -523,6 +552,9 @@ public class TetherApplication extends Application {
 			}
 		}
 		
+		// iptables rulesets (depend on tether.conf and the whitelist)
+		this.updateIptablesRuleset();
+		
 		if (configuration.isTiadhocSupported()) {
 			TetherApplication.this.copyFile(CoreTask.DATA_FILE_PATH+"/conf/tiwlan.ini", "0644", R.raw.tiwlan_ini);
 			Hashtable<String,String> values = this.tiwlan.get();
@@ -675,6 +707,24 @@ public class TetherApplication extends Application {
     	return file.exists();
     }
     
+    /*
+     * Regenerates the rulesets which TetherService applies via iptables-restore.
+     * If the kernel supports it the whitelist is (re)loaded into an ipset first;
+     * only the rulesets reference the set, so it is not loaded if they are not
+     * used (no iptables-restore).
+     */
+    public void updateIptablesRuleset() {
+    	ArrayList<String> macs = this.whitelist.exists() ? this.whitelist.get() : null;
+    	String ipsetName = null;
+    	if (macs != null && "true".equals(this.tethercfg.get("iptables.restore")) &&
+    			this.coretask.isIpsetSupported() && this.whitelistIpset.load(macs)) {
+    		ipsetName = CoreTask.WhitelistIpset.SET_NAME;
+    	}
+    	if (this.iptablesRuleset.write(this.tethercfg.get("ip.network"), "true".equals(this.tethercfg.get("mss.clamping")), macs, ipsetName) == false) {
+    		Log.e(MSG_TAG, "Unable to update iptables-rulesets!");
+    	}
+    }
+    
     public void installWpaSupplicantConfig() {
     	this.copyFile(CoreTask.DATA_FILE_PATH+"/conf/wpa_supplicant.conf", "0644", R.raw.wpa_supplicant_conf);
     }
@@ -702,48 +752,70 @@ public class TetherApplication extends Application {
 
     public void installFiles() {
 		String message = null;
+		// chmod-command per copied file; executed as one batch
+		LinkedHashMap<String, String> chmods = new LinkedHashMap<String, String>();
+		// Assets whose content did not change are not rewritten
+		CoreTask.InstallManifest manifest = this.coretask.new InstallManifest();
+		manifest.read();
 		// tether
 		if (message == null) {
-	    	message = TetherApplication.this.copyFile(CoreTask.DATA_FILE_PATH+"/bin/tether", "0755", R.raw.tether);
+	    	message = TetherApplication.this.installFile(CoreTask.DATA_FILE_PATH+"/bin/tether", "0755", R.raw.tether, chmods, manifest);
 		}
 		// dnsmasq
 		if (message == null) {
-	    	message = TetherApplication.this.copyFile(CoreTask.DATA_FILE_PATH+"/bin/dnsmasq", "0755", R.raw.dnsmasq);
+	    	message = TetherApplication.this.installFile(CoreTask.DATA_FILE_PATH+"/bin/dnsmasq", "0755", R.raw.dnsmasq, chmods, manifest);
 		}
 		// iptables
 		if (message == null) {
-	    	message = TetherApplication.this.copyFile(CoreTask.DATA_FILE_PATH+"/bin/iptables", "0755", R.raw.iptables);
+	    	message = TetherApplication.this.installFile(CoreTask.DATA_FILE_PATH+"/bin/iptables", "0755", R.raw.iptables, chmods, manifest);
 		}
 		// iwconfig
 		if (message == null) {
-	    	message = TetherApplication.this.copyFile(CoreTask.DATA_FILE_PATH+"/bin/iwconfig", "0755", R.raw.iwconfig);
+	    	message = TetherApplication.this.installFile(CoreTask.DATA_FILE_PATH+"/bin/iwconfig", "0755", R.raw.iwconfig, chmods, manifest);
 		}
 		// ifconfig
 		if (message == null) {
-	    	message = TetherApplication.this.copyFile(CoreTask.DATA_FILE_PATH+"/bin/ifconfig", "0755", R.raw.ifconfig);
+	    	message = TetherApplication.this.installFile(CoreTask.DATA_FILE_PATH+"/bin/ifconfig", "0755", R.raw.ifconfig, chmods, manifest);
 		}
 		// rfkill
 		if (message == null) {
-	    	message = TetherApplication.this.copyFile(CoreTask.DATA_FILE_PATH+"/bin/rfkill", "0755", R.raw.rfkill);
+	    	message = TetherApplication.this.installFile(CoreTask.DATA_FILE_PATH+"/bin/rfkill", "0755", R.raw.rfkill, chmods, manifest);
 		}
     	/*
 		if (configuration.enableFixPersist()) {	
 			// fixpersist.sh
 			if (message == null) {
-				message = TetherApplication.this.copyFile(TetherApplication.this.coretask.DATA_FILE_PATH+"/bin/fixpersist.sh", "0755", R.raw.fixpersist_sh);
+				message = TetherApplication.this.installFile(TetherApplication.this.coretask.DATA_FILE_PATH+"/bin/fixpersist.sh", "0755", R.raw.fixpersist_sh, chmods, manifest);
 			}				
 		}*/
 		// edify script
 		if (message == null) {
-			TetherApplication.this.copyFile(CoreTask.DATA_FILE_PATH+"/conf/tether.edify", "0644", R.raw.tether_edify);
+			TetherApplication.this.installFile(CoreTask.DATA_FILE_PATH+"/conf/tether.edify", "0644", R.raw.tether_edify, chmods, manifest);
 		}
 		// tether.cfg
 		/*if (message == null) {
-			TetherApplication.this.copyFile(TetherApplication.this.coretask.DATA_FILE_PATH+"/conf/tether.conf", "0644", R.raw.tether_conf);
+			TetherApplication.this.installFile(TetherApplication.this.coretask.DATA_FILE_PATH+"/conf/tether.conf", "0644", R.raw.tether_conf, chmods, manifest);
 		}*/
 		
+		ArrayList<String> files = new ArrayList<String>(chmods.keySet());
+		ArrayList<String> commands = new ArrayList<String>(chmods.values());
 		// wpa_supplicant drops privileges, we need to make files readable.
-		TetherApplication.this.coretask.chmod(CoreTask.DATA_FILE_PATH+"/conf/", "0755");
+		commands.add("chmod 0755 "+CoreTask.DATA_FILE_PATH+"/conf/");
+		
+		ArrayList<ShellSession.Result> results = CoreTask.runStandardBatch(commands);
+		for (int i = 0; i < results.size(); i++) {
+			ShellSession.Result result = results.get(i);
+			if (result.isSuccess() == false) {
+				if (message == null) {
+					message = "Can't change file-permission ("+result.getCommand()+")!";
+				}
+			}
+			else if (i < files.size()) {
+				// Only files with the right permissions are recorded
+				manifest.confirm(files.get(i));
+			}
+		}
+		manifest.write();
 	
 		if (message == null) {
 	    	message = getString(R.string.global_application_installed);
@@ -823,6 +895,63 @@ public class TetherApplication extends Application {
     	return result;
     }
     
+    /*
+     * Installs a raw resource unless the manifest shows it is already in place.
+     * The content is written to a temporary file which is renamed over the
+     * old one - running binaries (dnsmasq) can be replaced this way, and a
+     * partially written file is never picked up.
+     */
+    private String installFile(String filename, String permission, int ressource, LinkedHashMap<String, String> chmods, CoreTask.InstallManifest manifest) {
+    	ByteArrayOutputStream content = new ByteArrayOutputStream(64 * 1024);
+    	String sha1;
+    	try {
+    		MessageDigest digest = MessageDigest.getInstance("SHA-1");
+    		InputStream is = this.getResources().openRawResource(ressource);
+    		try {
+    			byte buf[] = new byte[64 * 1024];
+    			int len;
+    			while ((len = is.read(buf)) > 0) {
+    				digest.update(buf, 0, len);
+    				content.write(buf, 0, len);
+    			}
+    		} finally {
+    			is.close();
+    		}
+    		StringBuilder hex = new StringBuilder();
+    		for (byte b : digest.digest()) {
+    			hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    		}
+    		sha1 = hex.toString();
+    	} catch (Exception e) {
+    		return "Couldn't install file - "+filename+"!";
+    	}
+    	if (manifest.isCurrent(filename, sha1, content.size())) {
+    		Log.d(MSG_TAG, "File '"+filename+"' is up to date.");
+    		return null;
+    	}
+
+    	Log.d(MSG_TAG, "Installing file '"+filename+"' ("+content.size()+" bytes) ...");
+    	File tmpFile = new File(filename+".tmp");
+    	try {
+    		FileOutputStream out = new FileOutputStream(tmpFile);
+    		try {
+    			content.writeTo(out);
+    			out.getFD().sync();
+    		} finally {
+    			out.close();
+    		}
+    		if (tmpFile.renameTo(new File(filename)) == false) {
+    			throw new IOException("rename failed");
+    		}
+    	} catch (IOException e) {
+    		tmpFile.delete();
+    		return "Couldn't install file - "+filename+"!";
+    	}
+    	chmods.put(filename, "chmod "+permission+" "+filename);
+    	manifest.stage(filename, sha1, content.size());
+    	return null;
+    }
+    
     private String copyFile(String filename, int ressource) {
     	File outFile = new File(filename);
     	Log.d(MSG_TAG, "Copying file '"+filename+"' ...");
@@ -17,16 +17,32 @@ import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.StringTokenizer;
 import java.io.*;
 import java.net.*;
 
 import com.googlecode.android.wifi.tether.data.ClientData;
+import com.googlecode.android.wifi.tether.data.InterfaceStats;
+import com.googlecode.android.wifi.tether.data.LeaseEvent;
+import com.googlecode.android.wifi.tether.data.MacAddress;
+import com.googlecode.android.wifi.tether.data.MacMap;
+import com.googlecode.android.wifi.tether.data.MacSet;
+import com.googlecode.android.wifi.tether.system.ClientPresenceTracker;
+import com.googlecode.android.wifi.tether.system.ConfigDiff;
 import com.googlecode.android.wifi.tether.system.Configuration;
 import com.googlecode.android.wifi.tether.system.CoreTask;
+import com.googlecode.android.wifi.tether.system.InterfaceStatsSampler;
+import com.googlecode.android.wifi.tether.system.IptablesCounterParser;
+import com.googlecode.android.wifi.tether.system.LeaseDiff;
+import com.googlecode.android.wifi.tether.system.LeaseWatcher;
+import com.googlecode.android.wifi.tether.system.PhaseTracer;
+import com.googlecode.android.wifi.tether.system.RadioStateWaiter;
+import com.googlecode.android.wifi.tether.system.ShellSession;
+import com.googlecode.android.wifi.tether.system.StartupPipeline;
 import com.googlecode.android.wifi.tether.system.WimaxHelper;
 import com.googlecode.android.wifi.tether.system.FallbackTether;
 
@@ -78,14 +94,17 @@ public class TetherService extends Service {
 	private TetherApplication application = null;
 	public static TetherService singleton = null;
 
-	// Data counters
-	private Thread trafficCounterThread = null;
+	// Interface-counters (shared by traffic-counter, idle- and quota-checker)
+	private InterfaceStatsSampler statsSampler = null;
+	private TrafficCounter trafficCounter = null;
+	private InterfaceStatsSampler.Listener trafficRecorder = null;
 	// Client-Connect Thread
 	private Thread clientConnectThread = null;
+	private ClientConnect clientConnect = null;
 	//
-	private Thread shutdownIdleCheckerThread = null;
+	private ShutdownIdleChecker shutdownIdleChecker = null;
 	private Thread shutdownTimerCheckerThread = null;
-	private Thread shutdownQuotaCheckerThread = null;
+	private ShutdownQuotaChecker shutdownQuotaChecker = null;
 	private Thread keepAliveCheckerThread = null;
 	
 	// WifiManager
@@ -98,9 +117,24 @@ public class TetherService extends Service {
 	// Bluetooth
 	private BluetoothAdapter btAdapter;
 	private boolean origBtState;
+
+	// Waits for wifi/bt-state-changes; RADIO_STATE_TIMEOUT is the upper bound
+	private RadioStateWaiter radioStateWaiter;
+	private static final long RADIO_STATE_TIMEOUT = 5000;
+	// Startup-steps running at the same time
+	private static final int STARTUP_THREADS = 2;
 		
 	// Default state
 	private int state = STATE_IDLE;
+	
+	// Whitelist currently present in nat PREROUTING (null if access control is disabled)
+	private MacSet appliedWhitelist = null;
+	private boolean whitelistApplied = false;
+	// NAT-rules were set up from conf/iptables.* (not by tether.edify's single iptables-calls)
+	private boolean natRulesRestored = false;
+	// tether.conf/hostapd.conf-settings tethering runs with (null if unknown, e.g. in framework-mode)
+	private HashMap<String, String> appliedTetherCfg = null;
+	private HashMap<String, String> appliedHostapdCfg = null;
 		
 	// timestamp of last counter-update
 	long timestampCounterUpdate = 0;
@@ -154,6 +188,7 @@ public class TetherService extends Service {
         
         // Bluetooth
         btAdapter = BluetoothAdapter.getDefaultAdapter();
+        radioStateWaiter = new RadioStateWaiter(this, wifiManager, btAdapter);
         
         // Init timeStampCounterUpdate
         timestampCounterUpdate = System.currentTimeMillis();
@@ -223,6 +258,7 @@ public class TetherService extends Service {
 	public void onDestroy() {
 		Log.d(TAG, ">>>>>>>>>>>>> Tethering-Service stopped! <<<<<<<<<<<<<");
 		singleton = null;
+		CoreTask.closeShells();
 		super.onDestroy();
 	}
 
@@ -260,136 +296,196 @@ public class TetherService extends Service {
     	autoShutdown = false;
  		new Thread(new Runnable(){
 
+ 			// Set by the "params"-step, read by the steps depending on it
+ 			private volatile String setupMethod;
+ 			private volatile boolean waitForShutdown = false;
+
 			public void run(){
- 		    	// Check if binaries need to be updated
-		    	if (application.binariesExists() == false || application.coretask.filesetOutdated()) {
-		        	if (application.coretask.hasRootPermission()) {
-		        		application.installFiles();
-		        	}
-		        }
-		    	
+				final PhaseTracer.Session trace = application.phaseTracer.begin(PhaseTracer.START);
+				
+		        final boolean reloadDriver = application.settings.getBoolean("driverreloadpref", false);
+		        final boolean reloadDriver2 = application.settings.getBoolean("driverreloadpref2", true);
+		        final boolean active4G = application.settings.getBoolean("enable4gpref", true);
+		        final boolean currentEncryptionEnabled = application.settings.getBoolean("encpref", false);
+		        final String currentPassphrase = application.settings.getString("passphrasepref", application.DEFAULT_PASSPHRASE);
+
 		    	if (wifiManager != null)
 		    		origWifiState = wifiManager.isWifiEnabled();
 		    	
 		    	if (btAdapter != null)
 		    		origBtState = btAdapter.isEnabled();
 
-		    	boolean waitForShutdown = false;
-
-		        // Check if we need to disable wimax
-		        application.updateDeviceParameters();
-		        if (application.configuration.getDevice().equals(Configuration.DEVICE_SPHD700)) {
-		        	Log.d(TAG, "Disabling 4G ...");
-		        	WimaxHelper.samsungWimax(TetherService.this, false);
-		        	waitForShutdown = true;
-		        }
-		        
+		    	/*
+		    	 * Startup-steps and their dependencies:
+		    	 * 
+		    	 *   install ------------------> configure --> tether
+		    	 *   params --+----------------/                /
+		    	 *            +--> radios-off --> driver ------/
+		    	 *
+		    	 * Installing files and generating the configuration overlap
+		    	 * with waiting for WiFi/Bluetooth to go down.
+		    	 */
+		    	StartupPipeline pipeline = new StartupPipeline(trace, STARTUP_THREADS);
+		    	
+		    	// Check if binaries need to be updated
+		    	pipeline.add("install", PhaseTracer.PHASE_INSTALL, new StartupPipeline.Step() {
+		    		public boolean run() {
+				    	if (application.binariesExists() == false || application.coretask.filesetOutdated()) {
+				        	if (application.coretask.hasRootPermission()) {
+				        		application.installFiles();
+				        	}
+				        }
+				    	return true;
+		    		}
+		    	});
+		    	
+		        // Check if we need to disable wimax and if "auto"-setup method is selected
+		    	pipeline.add("params", PhaseTracer.PHASE_4G_OFF, new StartupPipeline.Step() {
+		    		public boolean run() {
+				        application.updateDeviceParameters();
+				        if (application.configuration.getDevice().equals(Configuration.DEVICE_SPHD700)) {
+				        	Log.d(TAG, "Disabling 4G ...");
+				        	WimaxHelper.samsungWimax(TetherService.this, false);
+				        	waitForShutdown = true;
+				        }
+				        String method = application.settings.getString("setuppref", "auto");
+				        if (method.equals("auto")) {
+				        	method = application.getDeviceParameters().getAutoSetupMethod();
+				        }
+				        setupMethod = method;
+				        return true;
+		    		}
+		    	});
+		    	
 			    // Disable Wifi.
-		        disableWifiAndBt(waitForShutdown);
-		        
-		        // Check if "auto"-setup method is selected
-		        boolean reloadDriver = application.settings.getBoolean("driverreloadpref", false);
-		        boolean reloadDriver2 = application.settings.getBoolean("driverreloadpref2", true);
-		        String setupMethod = application.settings.getString("setuppref", "auto");
-		        boolean active4G = application.settings.getBoolean("enable4gpref", true);
-		        boolean currentEncryptionEnabled = application.settings.getBoolean("encpref", false);
-		        String currentPassphrase = application.settings.getString("passphrasepref", application.DEFAULT_PASSPHRASE);
-		        
-		        
-		        if (setupMethod.equals("auto")) {
-		        	setupMethod = application.getDeviceParameters().getAutoSetupMethod();
-		        }
-
+		    	pipeline.add("radios-off", PhaseTracer.PHASE_RADIOS_OFF, new StartupPipeline.Step() {
+		    		public boolean run() {
+		    			disableWifiAndBt(waitForShutdown);
+		    			return true;
+		    		}
+		    	}, "params");
+		    	
 			    // Generate configuration
-		    	application.updateConfiguration();
-	
-		        if(setupMethod.equals("framework_tether")){
-			      //Start fallback tether mode	
-		          try { 	
-		        	  Log.d(TAG, "Starting fallback tether mode");
-		        	  //get context and start
-			          WifiManager wifi = (WifiManager) getSystemService(Context.WIFI_SERVICE);
-		        	  FallbackTether.controlStockTether(wifi, true, currentEncryptionEnabled, currentPassphrase);
-				    
-		        		// Acquire Wakelock
-			    		application.acquireWakeLock();
-			    		state = STATE_RUNNING;
-			    		
-			    		//show stats even though its worthless
-						clientConnectEnable(true);
-			    		trafficCounterEnable(true);
-			    		
-			         } catch (Exception e) {
-		                Log.e(TAG, "error: " + e.getMessage());
-						application.displayToastMessage("error: " + e.getMessage());
-				    	state = STATE_FAILURE_EXE;
-		            }
-		        } else {
-		        	//regular wifi tether mode
-
-	        		//TODO: This is a hack to load drivers outside tether script
-		        	if(reloadDriver2) {
-				   		Log.d(TAG, ">>insmod outside tether start");
-		        		CoreTask.runRootCommand(Configuration.getWifiUnloadCmd() + ";" + Configuration.getWifiLoadCmd());
-		        	} else {
-		        		Log.d(TAG, "Driver Setup Method Check for driver reload");
-			            // Don't stop wifi if we want softap or netd
-				    	if (setupMethod.startsWith("softap") || setupMethod.startsWith("netd")) {
-				    		if (reloadDriver == false) {
-				    			enableAndDisconnectWifi();
-				    		}
-				    	};
-		        	}
-			    	
-		    	// Check if tether-service is already-running
-		    	if (state != STATE_RUNNING) {
-			    	// Starting service
-			    	if (CoreTask.runRootCommand(CoreTask.DATA_FILE_PATH+"/bin/tether start")) {
-						// Acquire Wakelock
-			    		application.acquireWakeLock();
-			    		state = STATE_RUNNING;
-			    	}
-			    	else {
-			    		state = STATE_FAILURE_EXE;
-			    	}
+		    	pipeline.add("configure", PhaseTracer.PHASE_CONFIGURE, new StartupPipeline.Step() {
+		    		public boolean run() {
+		    			application.updateConfiguration();
+		    			return true;
+		    		}
+		    	}, "install", "params");
+		    	
+		    	pipeline.add("driver", PhaseTracer.PHASE_DRIVER, new StartupPipeline.Step() {
+		    		public boolean run() {
+		    			if (setupMethod.equals("framework_tether")) {
+		    				// The framework handles the driver itself
+		    				return true;
+		    			}
+		        		//TODO: This is a hack to load drivers outside tether script
+			        	if(reloadDriver2) {
+					   		Log.d(TAG, ">>insmod outside tether start");
+			        		CoreTask.runRootBatch(Arrays.asList(Configuration.getWifiUnloadCmd(), Configuration.getWifiLoadCmd()));
+			        	} else {
+			        		Log.d(TAG, "Driver Setup Method Check for driver reload");
+				            // Don't stop wifi if we want softap or netd
+					    	if (setupMethod.startsWith("softap") || setupMethod.startsWith("netd")) {
+					    		if (reloadDriver == false) {
+					    			enableAndDisconnectWifi();
+					    		}
+					    	};
+			        	}
+			        	return true;
+		    		}
+		    	}, "radios-off");
+		    	
+		    	pipeline.add("tether", PhaseTracer.PHASE_TETHER_START, new StartupPipeline.Step() {
+		    		public boolean run() {
+		    			if (setupMethod.equals("framework_tether")) {
+		    				//Start fallback tether mode
+		    				try {
+					        	Log.d(TAG, "Starting fallback tether mode");
+					        	//get context and start
+						        WifiManager wifi = (WifiManager) getSystemService(Context.WIFI_SERVICE);
+					        	FallbackTether.controlStockTether(wifi, true, currentEncryptionEnabled, currentPassphrase);
+					        	
+				        		// Acquire Wakelock
+					    		application.acquireWakeLock();
+					    		state = STATE_RUNNING;
+					    		return true;
+		    				} catch (Exception e) {
+				                Log.e(TAG, "error: " + e.getMessage());
+								application.displayToastMessage("error: " + e.getMessage());
+								return false;
+		    				}
+		    			}
+				    	// Check if tether-service is already-running
+				    	if (state != STATE_RUNNING) {
+					    	// Starting service
+					    	if (CoreTask.runRootCommand(new String[] { CoreTask.DATA_FILE_PATH+"/bin/tether", "start" }, CoreTask.TETHER_TIMEOUT) == false ||
+					    			applyNatRules(true) == false) {
+					    		return false;
+					    	}
+				    		whitelistApplied();
+				    		configurationApplied();
+							// Acquire Wakelock
+				    		application.acquireWakeLock();
+				    		state = STATE_RUNNING;
+				    	}
+				    	return true;
+		    		}
+		    	}, "configure", "driver");
+		    	
+		    	String failedStep = pipeline.run();
+		    	boolean frameworkTether = "framework_tether".equals(setupMethod);
+		    	if (failedStep != null) {
+		    		Log.d(TAG, "Startup-step "+failedStep+" failed.");
+		    		state = STATE_FAILURE_EXE;
 		    	}
-				
-		    	// Check if tether.status was set to "running"
-		    	String wifiStatus = application.coretask.getProp("tether.status");
-				if (wifiStatus.equals("running") == false) {
-					state = STATE_FAILURE_LOG;
-				}
-				else {
+		    	else if (frameworkTether) {
+		    		//show stats even though its worthless
 					clientConnectEnable(true);
 		    		trafficCounterEnable(true);
+		    	}
+		    	else {
+			    	// Check if tether.status was set to "running"
+			    	trace.phase(PhaseTracer.PHASE_STATUS);
+			    	String wifiStatus = application.coretask.getProp("tether.status");
+					if (wifiStatus.equals("running") == false) {
+						state = STATE_FAILURE_LOG;
+					}
+					else {
+						trace.phase(PhaseTracer.PHASE_MONITORS);
+						clientConnectEnable(true);
+			    		trafficCounterEnable(true);
 
-		    		TetherService.this.application.preferenceEditor.putBoolean("autoshutdownidle", false);
-		    		TetherService.this.application.preferenceEditor.putBoolean("autoshutdowntimer", false);
-		       		TetherService.this.application.preferenceEditor.putBoolean("autoshutdownquota", false);
-		    		TetherService.this.application.preferenceEditor.putBoolean("autoshutdownkeepalive", false);
-		       		TetherService.this.application.preferenceEditor.commit();
-		    		if (TetherService.this.application.settings.getBoolean("shutdownpref", false))
-		    			shutdownIdleCheckerEnable(true);
+			    		TetherService.this.application.preferenceEditor.putBoolean("autoshutdownidle", false);
+			    		TetherService.this.application.preferenceEditor.putBoolean("autoshutdowntimer", false);
+			       		TetherService.this.application.preferenceEditor.putBoolean("autoshutdownquota", false);
+			    		TetherService.this.application.preferenceEditor.putBoolean("autoshutdownkeepalive", false);
+			       		TetherService.this.application.preferenceEditor.commit();
+			    		if (TetherService.this.application.settings.getBoolean("shutdownpref", false))
+			    			shutdownIdleCheckerEnable(true);
 
-		       		if (TetherService.this.application.settings.getBoolean("shutdowntimerpref", false))
-		    			shutdownTimerCheckerEnable(true);
+			       		if (TetherService.this.application.settings.getBoolean("shutdowntimerpref", false))
+			    			shutdownTimerCheckerEnable(true);
 
-		       		if (TetherService.this.application.settings.getBoolean("quotashutdownpref", false))
-		    			shutdownQuotaCheckerEnable(true);
+			       		if (TetherService.this.application.settings.getBoolean("quotashutdownpref", false))
+			    			shutdownQuotaCheckerEnable(true);
 
-		    		if (TetherService.this.application.settings.getBoolean("keepalivecheckpref", false))
-		    			keepAliveCheckerEnable(true);
-				}
-				
+			    		if (TetherService.this.application.settings.getBoolean("keepalivecheckpref", false))
+			    			keepAliveCheckerEnable(true);
+					}
+		    	}
+		    	
 				// Enable 4G again
-				if (active4G) {
-			        if (application.configuration.getDevice().equals(Configuration.DEVICE_SPHD700)) {
-			        	Log.d(TAG, "Enabling 4G ...");
-			        	WimaxHelper.samsungWimax(TetherService.this, true);
-			        }				
-				}
-
-		        };
+		    	if (frameworkTether == false) {
+					trace.phase(PhaseTracer.PHASE_4G_ON);
+					if (active4G) {
+				        if (application.configuration.getDevice().equals(Configuration.DEVICE_SPHD700)) {
+				        	Log.d(TAG, "Enabling 4G ...");
+				        	WimaxHelper.samsungWimax(TetherService.this, true);
+				        }				
+					}
+		    	}
+		        trace.end(state);
 		    	sendStateBroadcast(state);
 			}
 		}).start();
@@ -400,8 +496,10 @@ public class TetherService extends Service {
     	state = STATE_STOPPING;
  		new Thread(new Runnable(){
 			public void run(){   	
+				PhaseTracer.Session trace = application.phaseTracer.begin(PhaseTracer.STOP);
 
 		        // Check if we need to disable wimax
+				trace.phase(PhaseTracer.PHASE_4G_OFF);
 		        application.updateDeviceParameters();
 		        if (application.configuration.getDevice().equals(Configuration.DEVICE_SPHD700)) {
 		        	Log.d(TAG, "Disabling 4G ...");
@@ -414,6 +512,7 @@ public class TetherService extends Service {
 		        }
 				
 				// Disabling polling-threads
+				trace.phase(PhaseTracer.PHASE_MONITORS);
 		    	trafficCounterEnable(false);
 		    	clientConnectEnable(false);
 	    		keepAliveCheckerEnable(false);
@@ -437,6 +536,7 @@ public class TetherService extends Service {
 		        
 		        if(setupMethod.equals("framework_tether")){
 			        //fallback wifi_service tether hack	
+			        trace.phase(PhaseTracer.PHASE_FALLBACK);
 			        try {	
 			          WifiManager wifi = (WifiManager) getSystemService(Context.WIFI_SERVICE);
 		        	  FallbackTether.controlStockTether(wifi, false, currentEncryptionEnabled, currentPassphrase);
@@ -449,14 +549,17 @@ public class TetherService extends Service {
 		        } else {
 
 		        	//regular tether mode
-		         	if (CoreTask.runRootCommand(CoreTask.DATA_FILE_PATH+"/bin/tether stop") == false) {
+		        	trace.phase(PhaseTracer.PHASE_TETHER_STOP);
+		         	if (CoreTask.runRootCommand(new String[] { CoreTask.DATA_FILE_PATH+"/bin/tether", "stop" }, CoreTask.TETHER_TIMEOUT) == false ||
+		         			removeNatRules() == false) {
 			    		state = STATE_FAILURE_EXE;
 			    	}
 
+		        	trace.phase(PhaseTracer.PHASE_DRIVER);
 	        		//TODO: This is a hack to load drivers outside tether script
 		        	if(reloadDriver2) {
 				   		Log.d(TAG, ">>insmod outside tether stop");
-		        		CoreTask.runRootCommand(Configuration.getWifiUnloadCmd() + ";" + Configuration.getWifiFinalloadCmd());
+		        		CoreTask.runRootBatch(Arrays.asList(Configuration.getWifiUnloadCmd(), Configuration.getWifiFinalloadCmd()));
 		        	} else {
 		        		Log.d(TAG, "Driver Setup Method Check for driver reload");
 			            // Don't stop wifi if we want softap or netd
@@ -472,9 +575,11 @@ public class TetherService extends Service {
 		    	TetherService.this.application.notificationManager.cancelAll();
 		        
 		    	// Re-Enable wifi if it was enabled
+		    	trace.phase(PhaseTracer.PHASE_RADIOS_ON);
 	    		enableWifiAndBt(false);
 
 				// Enable 4G again
+	    		trace.phase(PhaseTracer.PHASE_4G_ON);
 	    		if (active4G) {
 			        if (application.configuration.getDevice().equals(Configuration.DEVICE_SPHD700)) {
 			        	Log.d(TAG, "Enabling 4G ...");
@@ -482,10 +587,20 @@ public class TetherService extends Service {
 			        }				
 	    		}
 		        
+		    	synchronized (TetherService.this) {
+		    		whitelistApplied = false;
+		    		appliedWhitelist = null;
+		    		natRulesRestored = false;
+		    		appliedTetherCfg = null;
+		    		appliedHostapdCfg = null;
+		    		application.whitelistIpset.destroy();
+		    	}
+		    	
 		    	// Check for failed-state 
 		    	if (state != STATE_FAILURE_EXE) {
 		    		state = STATE_IDLE;
 		    	}
+		    	trace.end(state);
 		    	sendStateBroadcast(state);   
 		    	sendManageBroadcast(SERVICE_STOPPED);
 		    	
@@ -503,7 +618,13 @@ public class TetherService extends Service {
     	sendStateBroadcast(state);
  		new Thread(new Runnable(){
 			public void run(){     
+				PhaseTracer.Session trace = application.phaseTracer.begin(PhaseTracer.RESTART);
+				synchronized (TetherService.this) {
+					appliedTetherCfg = null;
+					appliedHostapdCfg = null;
+				}
 		    	// Disabling polling-threads
+				trace.phase(PhaseTracer.PHASE_MONITORS);
 		    	trafficCounterEnable(false);
 		    	clientConnectEnable(false);
 	    		keepAliveCheckerEnable(false);
@@ -511,6 +632,7 @@ public class TetherService extends Service {
 		    	shutdownTimerCheckerEnable(false);
 		    	shutdownQuotaCheckerEnable(false);
 
+		        trace.phase(PhaseTracer.PHASE_4G_OFF);
 		        application.updateDeviceParameters();
 		        if (application.configuration.getDevice().equals(Configuration.DEVICE_SPHD700)) {
 		        	Log.d(TAG, "Disabling 4G ...");
@@ -523,11 +645,14 @@ public class TetherService extends Service {
 		        }
 		        
 		
-		    	if (CoreTask.runRootCommand(CoreTask.DATA_FILE_PATH+"/bin/tether stop") == false) {
+		        trace.phase(PhaseTracer.PHASE_TETHER_STOP);
+		    	if (CoreTask.runRootCommand(new String[] { CoreTask.DATA_FILE_PATH+"/bin/tether", "stop" }, CoreTask.TETHER_TIMEOUT) == false ||
+		    			removeNatRules() == false) {
 		    		state = STATE_FAILURE_EXE;
 		    	}
 		    	
 		        // Disable Wifi.
+		        trace.phase(PhaseTracer.PHASE_RADIOS_OFF);
 		        disableWifiAndBt(false);
 		        
 		    	// Check if "auto"-setup method is selected
@@ -542,6 +667,7 @@ public class TetherService extends Service {
 		        
 		        if(setupMethod.equals("framework_tether")){
 		        	//Start fallback tether mode	
+		        	trace.phase(PhaseTracer.PHASE_FALLBACK);
 		        	try { 	
 			        	Log.d(TAG, "Starting fallback tether mode");
 				        WifiManager wifi = (WifiManager) getSystemService(Context.WIFI_SERVICE);
@@ -561,11 +687,12 @@ public class TetherService extends Service {
 		        	}        
 		        } else {
 		        	//regular wifitether mode
+		        	trace.phase(PhaseTracer.PHASE_DRIVER);
 
 	        		//TODO: This is a hack to load drivers outside tether script
 		        	if(reloadDriver2) {
 				   		Log.d(TAG, ">>insmod outside tether start");
-		        		CoreTask.runRootCommand(Configuration.getWifiUnloadCmd() + ";" + Configuration.getWifiLoadCmd());
+		        		CoreTask.runRootBatch(Arrays.asList(Configuration.getWifiUnloadCmd(), Configuration.getWifiLoadCmd()));
 		        	} else {
 		        		Log.d(TAG, "Driver Setup Method Check for driver reload");
 			            // Don't stop wifi if we want softap or netd
@@ -577,12 +704,17 @@ public class TetherService extends Service {
 		        	}
 	
 				    // Generate configuration
+			    	trace.phase(PhaseTracer.PHASE_CONFIGURE);
 			    	application.updateConfiguration();
 	
 			    	// Check if tether-service is already-running
+			    	trace.phase(PhaseTracer.PHASE_TETHER_START);
 			    	if (state != STATE_RUNNING) {
 				    	// Starting service
-				    	if (CoreTask.runRootCommand(CoreTask.DATA_FILE_PATH+"/bin/tether start")) {
+				    	if (CoreTask.runRootCommand(new String[] { CoreTask.DATA_FILE_PATH+"/bin/tether", "start" }, CoreTask.TETHER_TIMEOUT) &&
+				    			applyNatRules(true)) {
+				    		whitelistApplied();
+				    		configurationApplied();
 				    		state = STATE_RUNNING;
 				    	}
 				    	else {
@@ -591,18 +723,20 @@ public class TetherService extends Service {
 			    	}
 	
 					// Enable 4G again
+			    	trace.phase(PhaseTracer.PHASE_4G_ON);
 			        if (application.configuration.getDevice().equals(Configuration.DEVICE_SPHD700)) {
 			        	Log.d(TAG, "Enabling 4G ...");
 			        	WimaxHelper.samsungWimax(TetherService.this, true);
 			        }				
 			    	
 			    	// Check if tether.status was set to "running"
+			    	trace.phase(PhaseTracer.PHASE_STATUS);
 			    	String wifiStatus = application.coretask.getProp("tether.status");
 					if (wifiStatus.equals("running") == false) {
 						state = STATE_FAILURE_LOG;
 					}
 					else {
-	
+			    		trace.phase(PhaseTracer.PHASE_MONITORS);
 						clientConnectEnable(true);
 			    		trafficCounterEnable(true);
 	
@@ -624,23 +758,201 @@ public class TetherService extends Service {
 			    			keepAliveCheckerEnable(true);
 					}	
 		    	}
+		    	trace.end(state);
 		    	sendStateBroadcast(state);		
 			};
 		}).start();
     }
     
-    public void reloadACRules() {
+    /*
+     * Applies changed settings while tethering is running. Only the subsystems
+     * reading a changed setting (see ConfigDiff) are restarted, so clients stay
+     * associated if e.g. only the DNS-servers changed. Falls back to restart()
+     * for everything else and if a partial action fails.
+     */
+    public synchronized void reconfigure() {
+    	if (state != STATE_RUNNING || this.appliedTetherCfg == null) {
+    		this.restart();
+    		return;
+    	}
+    	PhaseTracer.Session trace = application.phaseTracer.begin(PhaseTracer.RECONFIGURE);
+    	trace.phase(PhaseTracer.PHASE_CONFIGURE);
+    	application.updateConfiguration();
+    	HashMap<String, String> tetherCfg = new HashMap<String, String>(application.tethercfg);
+    	HashMap<String, String> hostapdCfg = new HashMap<String, String>(application.hostapdcfg);
+    	int subsystems = ConfigDiff.diff(this.appliedTetherCfg, tetherCfg, this.appliedHostapdCfg, hostapdCfg);
+    	Log.d(TAG, "Reconfiguring - affected subsystems: "+ConfigDiff.toString(subsystems));
+    	
+    	if ((subsystems & ConfigDiff.DRIVER) != 0) {
+    		trace.end(state);
+    		this.restart();
+    		return;
+    	}
+    	boolean success = true;
+    	if ((subsystems & ConfigDiff.ADDRESS) != 0) {
+    		trace.phase(PhaseTracer.PHASE_ADDRESS);
+    		success = CoreTask.runRootCommand(new String[] { CoreTask.DATA_FILE_PATH+"/bin/tether", "restartaddress" }, CoreTask.TETHER_TIMEOUT);
+    	}
+    	if (success && (subsystems & ConfigDiff.HOSTAPD) != 0) {
+    		trace.phase(PhaseTracer.PHASE_HOSTAPD);
+    		success = CoreTask.runRootCommand(new String[] { CoreTask.DATA_FILE_PATH+"/bin/tether", "restarthostapd" }, CoreTask.TETHER_TIMEOUT);
+    	}
+    	if (success && (subsystems & ConfigDiff.NAT) != 0) {
+    		trace.phase(PhaseTracer.PHASE_NAT);
+    		// The NAT-rules include the access-control rules
+    		success = this.applyNatRules(false);
+    		if (success) {
+    			this.whitelistApplied();
+    			// The accounting-rules were flushed along with the chain
+    			ClientConnect clientConnect = this.clientConnect;
+    			if (clientConnect != null) {
+    				clientConnect.accounting.restore();
+    			}
+    		}
+    	}
+    	if (success && (subsystems & ConfigDiff.DNSMASQ) != 0) {
+    		trace.phase(PhaseTracer.PHASE_DNSMASQ);
+    		success = CoreTask.runRootCommand(new String[] { CoreTask.DATA_FILE_PATH+"/bin/tether", "restartdnsmasq" }, CoreTask.TETHER_TIMEOUT);
+    	}
+    	
+    	if (success) {
+    		this.appliedTetherCfg = tetherCfg;
+    		this.appliedHostapdCfg = hostapdCfg;
+    		trace.end(state);
+    	}
+    	else {
+    		Log.d(TAG, "Partial reconfiguration failed - restarting tethering.");
+    		trace.end(STATE_FAILURE_EXE);
+    		this.restart();
+    	}
+    }
+    
+    /*
+     * Brings the access-control rules in line with the whitelist-file. Only
+     * MACs which were added or removed since the last update are inserted or
+     * deleted (one batch); the full restartsecwifi-action is used if access
+     * control was switched on/off or the rules are in an unknown state.
+     */
+    public synchronized void reloadACRules() {
     	try {
+    		application.updateIptablesRuleset();
+    		MacSet whitelist = application.whitelist.exists() ? application.whitelist.getMacSet() : null;
+    		if (this.whitelistApplied && whitelist == null && this.appliedWhitelist == null) {
+    			// Access control still disabled
+    			return;
+    		}
+    		if (this.whitelistApplied && whitelist != null && this.appliedWhitelist != null &&
+    				application.whitelistIpset.isLoaded() && this.natRulesRestored) {
+    			// The ipset has been swapped already; the nat-rules (matching the set) stay as they are
+    			this.appliedWhitelist = whitelist;
+    			return;
+    		}
+    		if (this.whitelistApplied && whitelist != null && this.appliedWhitelist != null) {
+    			if (this.updateACRules(this.appliedWhitelist, whitelist)) {
+    				this.appliedWhitelist = whitelist;
+    				return;
+    			}
+    			Log.d(TAG, "Updating access-control rules failed - restarting iptables.");
+    		}
 	    	Log.d(TAG, "Restarting iptables for access-control-changes!");
-			if (CoreTask.runRootCommand(CoreTask.DATA_FILE_PATH+"/bin/tether restartsecwifi") == false) {
+	    	this.whitelistApplied = false;
+	    	if (this.isNatRestoreEnabled() && application.iptablesRuleset.apply(CoreTask.IptablesRuleset.SECWIFI)) {
+	    		this.natRulesRestored = true;
+	    	}
+	    	else if (CoreTask.runRootCommand(new String[] { CoreTask.DATA_FILE_PATH+"/bin/tether", "restartsecwifi" }, CoreTask.TETHER_TIMEOUT)) {
+	    		this.natRulesRestored = false;
+	    		// The single iptables-calls match MAC by MAC
+	    		application.whitelistIpset.destroy();
+	    	}
+	    	else {
 				application.displayToastMessage(getString(R.string.global_application_error_restartsecwifi));
 				return;
 			}
+			this.whitelistApplied = true;
+			this.appliedWhitelist = whitelist;
 		} catch (Exception e) {
 			// nothing
 		}
     }
     
+    private boolean updateACRules(MacSet applied, MacSet whitelist) {
+    	String prefix = CoreTask.DATA_FILE_PATH+"/bin/iptables -t nat ";
+    	String suffix = " PREROUTING -m mac --mac-source ";
+    	ArrayList<String> commands = new ArrayList<String>();
+    	// New MACs go in front of the DROP-rule
+    	for (long mac : whitelist.toArray()) {
+    		if (applied.contains(mac) == false) {
+    			commands.add(prefix+"-I"+suffix+MacAddress.toString(mac)+" -j ACCEPT");
+    		}
+    	}
+    	for (long mac : applied.toArray()) {
+    		if (whitelist.contains(mac) == false) {
+    			commands.add(prefix+"-D"+suffix+MacAddress.toString(mac)+" -j ACCEPT");
+    		}
+    	}
+    	if (commands.isEmpty()) {
+    		return true;
+    	}
+    	Log.d(TAG, "Updating access-control rules ("+commands.size()+" changes).");
+    	for (ShellSession.Result result : CoreTask.runRootBatch(commands)) {
+    		if (result.isSuccess() == false) {
+    			return false;
+    		}
+    	}
+    	return true;
+    }
+    
+    /*
+     * Sets up the firewall- and NAT-rules with one iptables-restore of
+     * conf/iptables.start if tether.conf has "iptables.restore" (the start-
+     * action of tether.edify leaves them out then). Falls back to the script's
+     * single iptables-calls ("tether restartnat") if the restore fails.
+     * 'started': called right after "tether start".
+     */
+    private synchronized boolean applyNatRules(boolean started) {
+    	if (this.isNatRestoreEnabled()) {
+    		if (application.iptablesRuleset.apply(CoreTask.IptablesRuleset.START)) {
+    			this.natRulesRestored = true;
+    			return true;
+    		}
+    		Log.d(TAG, "Applying "+CoreTask.IptablesRuleset.START+" failed - using single iptables-calls.");
+    	}
+    	else if (started) {
+    		// Set up by "tether start"
+    		this.natRulesRestored = false;
+    		return true;
+    	}
+    	this.natRulesRestored = false;
+    	// The single iptables-calls match MAC by MAC
+    	application.whitelistIpset.destroy();
+    	return CoreTask.runRootCommand(new String[] { CoreTask.DATA_FILE_PATH+"/bin/tether", "restartnat" }, CoreTask.TETHER_TIMEOUT);
+    }
+    
+    /*
+     * Counterpart of applyNatRules() after "tether stop".
+     */
+    private boolean removeNatRules() {
+    	if (this.isNatRestoreEnabled() == false || application.iptablesRuleset.apply(CoreTask.IptablesRuleset.STOP)) {
+    		return true;
+    	}
+    	Log.d(TAG, "Applying "+CoreTask.IptablesRuleset.STOP+" failed - using single iptables-calls.");
+    	return CoreTask.runRootCommand(new String[] { CoreTask.DATA_FILE_PATH+"/bin/tether", "stopnat" }, CoreTask.TETHER_TIMEOUT);
+    }
+    
+    private boolean isNatRestoreEnabled() {
+    	return "true".equals(application.tethercfg.get("iptables.restore"));
+    }
+    
+    private synchronized void whitelistApplied() {
+    	this.appliedWhitelist = application.whitelist.exists() ? application.whitelist.getMacSet() : null;
+    	this.whitelistApplied = true;
+    }
+    
+    private synchronized void configurationApplied() {
+    	this.appliedTetherCfg = new HashMap<String, String>(application.tethercfg);
+    	this.appliedHostapdCfg = new HashMap<String, String>(application.hostapdcfg);
+    }
+    
     public int getState() {
 		return state;
 	}
@@ -796,61 +1108,53 @@ public class TetherService extends Service {
 	
 	private void disableWifiAndBt(boolean enableAction) {
         boolean dontdisablebt = application.settings.getBoolean("dontdisablebtpref", false);
-		boolean disableAction = false;
+		int wifiTarget = RadioStateWaiter.ANY;
+		int btTarget = RadioStateWaiter.ANY;
+		this.radioStateWaiter.register();
 		if (this.wifiManager.isWifiEnabled()) {
 			if (this.wifiLock != null && this.wifiLock.isHeld()) {
 				this.wifiLock.release();
 			}
     		this.wifiManager.setWifiEnabled(false);
-    		disableAction = true;
+    		wifiTarget = WifiManager.WIFI_STATE_DISABLED;
     		Log.d(TAG, "Wifi disabled!");
     	}
 		if (this.btAdapter != null && this.btAdapter.isEnabled() && dontdisablebt == false) {
 			this.btAdapter.disable();
-			disableAction = true;
+			btTarget = BluetoothAdapter.STATE_OFF;
 			Log.d(TAG, "BT disabled");
 		}
-		if (disableAction) {
-	    	// Waiting for interface-shutdown
-			try {
-				Thread.sleep(5000);
-			} catch (InterruptedException e) {
-				// nothing
-			}
-		}
+    	// Waiting for interface-shutdown
+		this.radioStateWaiter.await(wifiTarget, btTarget, RADIO_STATE_TIMEOUT);
+		this.radioStateWaiter.unregister();
     }
     
     private void enableWifiAndBt(boolean enableAction) {
     	boolean dontdisablebt = application.settings.getBoolean("dontdisablebtpref", false);
+		int wifiTarget = RadioStateWaiter.ANY;
+		int btTarget = RadioStateWaiter.ANY;
+		this.radioStateWaiter.register();
     	if (this.origWifiState == true && this.wifiManager.isWifiEnabled() == false) {
-        	// Waiting for interface-restart
     		this.wifiManager.setWifiEnabled(true);
-    		enableAction = true;
+    		wifiTarget = WifiManager.WIFI_STATE_ENABLED;
     		Log.d(TAG, "Wifi started!");
     	}
     	if (dontdisablebt == false && this.origBtState == true && this.btAdapter.isEnabled() == false) {
     		this.btAdapter.enable();
-    		enableAction = true;
+    		btTarget = BluetoothAdapter.STATE_ON;
     		Log.d(TAG, "BT enabled");
     	}
-    	if (enableAction) {
-	    	// Waiting for interface-shutdown
-			try {
-				Thread.sleep(5000);
-			} catch (InterruptedException e) {
-				// nothing
-			}
-		}
+    	// Waiting for interface-restart
+		this.radioStateWaiter.await(wifiTarget, btTarget, RADIO_STATE_TIMEOUT);
+		this.radioStateWaiter.unregister();
     }
 	
     private void enableAndDisconnectWifi() {
+    	radioStateWaiter.register();
     	wifiManager.setWifiEnabled(true);
     	wifiLock = wifiManager.createWifiLock(WifiManager.WIFI_MODE_FULL, "Tether");
-    	try {
-			Thread.sleep(5000);
-		} catch (InterruptedException e) {
-			// nothing
-		}
+    	radioStateWaiter.await(WifiManager.WIFI_STATE_ENABLED, RadioStateWaiter.ANY, RADIO_STATE_TIMEOUT);
+    	radioStateWaiter.unregister();
     	wifiManager.disconnect();
     	/*
     	try {
@@ -896,12 +1200,14 @@ public class TetherService extends Service {
    	private void clientConnectEnable(boolean enable) {
    		if (enable == true) {
 			if (this.clientConnectThread == null || this.clientConnectThread.isAlive() == false) {
-				this.clientConnectThread = new Thread(new ClientConnect());
+				this.clientConnect = new ClientConnect();
+				this.clientConnectThread = new Thread(this.clientConnect);
 				this.clientConnectThread.start();
 			}
    		} else {
 	    	if (this.clientConnectThread != null)
 	    		this.clientConnectThread.interrupt();
+	    	this.clientConnect = null;
    		}
    	}  
 	       
@@ -924,27 +1230,50 @@ public class TetherService extends Service {
         return b;
 	}*/
 	
+   	/**
+   	 * Registers a listener with the interface-sampler. The sampler is created
+   	 * on the first registration and dropped once the last listener is gone.
+   	 */
+   	private synchronized void statsListenerEnable(InterfaceStatsSampler.Listener listener, boolean enable) {
+   		if (enable == true) {
+   			if (this.statsSampler == null) {
+   				this.statsSampler = new InterfaceStatsSampler(this.application.coretask, this.application.getTetherNetworkDevice());
+   			}
+   			this.statsSampler.addListener(listener);
+   		} else {
+   			if (this.statsSampler != null && listener != null) {
+   				if (this.statsSampler.removeListener(listener) == false) {
+   					this.statsSampler = null;
+   				}
+   			}
+   		}
+   	}
+   	
    	private void trafficCounterEnable(boolean enable) {
    		if (enable == true) {
-			if (this.trafficCounterThread == null || this.trafficCounterThread.isAlive() == false) {
-				this.trafficCounterThread = new Thread(new TrafficCounter());
-				this.trafficCounterThread.start();
+			if (this.trafficCounter == null) {
+				this.trafficCounter = new TrafficCounter();
+				this.statsListenerEnable(this.trafficCounter, true);
+				this.trafficRecorder = this.application.trafficHistory.newRecorder();
+				this.statsListenerEnable(this.trafficRecorder, true);
 			}
    		} else {
-	    	if (this.trafficCounterThread != null)
-	    		this.trafficCounterThread.interrupt();
+   			this.statsListenerEnable(this.trafficCounter, false);
+   			this.statsListenerEnable(this.trafficRecorder, false);
+   			this.trafficCounter = null;
+   			this.trafficRecorder = null;
    		}
    	}
    	
    	private void shutdownIdleCheckerEnable(boolean enable) {
    		if (enable == true) {
-			if (this.shutdownIdleCheckerThread == null || this.shutdownIdleCheckerThread.isAlive() == false) {
-				this.shutdownIdleCheckerThread = new Thread(new ShutdownIdleChecker());
-				this.shutdownIdleCheckerThread.start();
+			if (this.shutdownIdleChecker == null) {
+				this.shutdownIdleChecker = new ShutdownIdleChecker();
+				this.statsListenerEnable(this.shutdownIdleChecker, true);
 			}
    		} else {
-	    	if (this.shutdownIdleCheckerThread != null)
-	    		this.shutdownIdleCheckerThread.interrupt();
+   			this.statsListenerEnable(this.shutdownIdleChecker, false);
+   			this.shutdownIdleChecker = null;
    		}
    	}
 
@@ -962,13 +1291,13 @@ public class TetherService extends Service {
 
    	private void shutdownQuotaCheckerEnable(boolean enable) {
    		if (enable == true) {
-			if (this.shutdownQuotaCheckerThread == null || this.shutdownQuotaCheckerThread.isAlive() == false) {
-				this.shutdownQuotaCheckerThread = new Thread(new ShutdownQuotaChecker());
-				this.shutdownQuotaCheckerThread.start();
+			if (this.shutdownQuotaChecker == null) {
+				this.shutdownQuotaChecker = new ShutdownQuotaChecker();
+				this.statsListenerEnable(this.shutdownQuotaChecker, true);
 			}
    		} else {
-	    	if (this.shutdownQuotaCheckerThread != null)
-	    		this.shutdownQuotaCheckerThread.interrupt();
+   			this.statsListenerEnable(this.shutdownQuotaChecker, false);
+   			this.shutdownQuotaChecker = null;
    		}
    	}
 
@@ -980,14 +1309,25 @@ public class TetherService extends Service {
    	 */
 	class ClientConnect implements Runnable {
 
-	    private ArrayList<String> knownWhitelists = new ArrayList<String>();
-	    private ArrayList<String> knownLeases = new ArrayList<String>();
-	    private Hashtable<String, ClientData> currentLeases = new Hashtable<String, ClientData>();
-	    private long timestampLeasefile = -1;
-	    private long timestampWhitelistfile = -1;
+	    private MacSet knownWhitelists = new MacSet();
+	    private LeaseDiff leaseDiff = new LeaseDiff();
+	    // Interval in seconds for presence- and byte-counter-updates (leases are event-driven)
+	    private static final int INTERVAL = 10;
+	    private boolean leasesChanged = true;
+	    private boolean whitelistChanged = true;
+	    // Clients handed to TetherApplication (mac ==> ClientData)
+	    private MacMap<ClientData> announcedClients = new MacMap<ClientData>();
+	    // Per-client byte-counters
+	    private CoreTask.ClientAccounting accounting = TetherService.this.application.coretask.new ClientAccounting();
+	    // Presence based on the neighbour-table
+	    private ClientPresenceTracker presenceTracker = new ClientPresenceTracker(TetherService.this.application.getTetherNetworkDevice());
+	    private ArrayList<String> appearedClients = new ArrayList<String>();
+	    private ArrayList<String> vanishedClients = new ArrayList<String>();
 
 	    // @Override
 	    public void run() {
+	    	LeaseWatcher leaseWatcher = LeaseWatcher.create(CoreTask.DATA_FILE_PATH);
+	    	leaseWatcher.start();
 	        while (!Thread.currentThread().isInterrupted()) {
 	        	//Log.d(MSG_TAG, "Checking for new clients ... ");
 	        	// Notification-Type
@@ -997,82 +1337,148 @@ public class TetherService extends Service {
 		        // Checking if Access-Control is activated
 		        if (accessControlActive) {
 	                // Checking whitelistfile
-	                long currentTimestampWhitelistFile = TetherService.this.application.coretask.getModifiedDate(CoreTask.DATA_FILE_PATH + "/conf/whitelist_mac.conf");
-	                if (this.timestampWhitelistfile != currentTimestampWhitelistFile) {
-	                    knownWhitelists = TetherService.this.application.whitelist.get();
-	                    this.timestampWhitelistfile = currentTimestampWhitelistFile;
+	                if (this.whitelistChanged) {
+	                    knownWhitelists = TetherService.this.application.whitelist.getMacSet();
+	                    this.whitelistChanged = false;
 	                }
 		        }
 
 	            // Checking leasefile
-	            long currentTimestampLeaseFile = TetherService.this.application.coretask.getModifiedDate(CoreTask.DATA_FILE_PATH + "/var/dnsmasq.leases");
-	            if (this.timestampLeasefile != currentTimestampLeaseFile) {
+	            if (this.leasesChanged) {
 	                try {
 	                	// Getting current dns-leases
-	                    this.currentLeases = TetherService.this.application.coretask.getLeases();
-	                    
-	                    // Cleaning-up knownLeases after a disconnect (dhcp-release)
-	                    for (String lease : this.knownLeases) {
-	                        if (this.currentLeases.containsKey(lease) == false) {
-	                        	Log.d(TAG, "Removing '"+lease+"' from known-leases!");
-	                            this.knownLeases.remove(lease);
-	                        	
-	                            notifyActivity();
-	                            TetherService.this.application.removeClientMac(lease);
-	                        }
+	                    ArrayList<LeaseEvent> events = this.leaseDiff.update(TetherService.this.application.coretask.getLeases());
+	                    for (LeaseEvent event : events) {
+	                    	switch (event.getType()) {
+	                    	case LeaseEvent.CLIENT_JOINED:
+	                    		this.clientJoined(event.getClientData(), accessControlActive, notificationType);
+	                    		break;
+	                    	case LeaseEvent.CLIENT_LEFT:
+	                    		this.clientLeft(event.getMacAddress());
+	                    		break;
+	                    	case LeaseEvent.CLIENT_RENEWED:
+	                    		this.clientRenewed(event.getClientData());
+	                    		break;
+	                    	}
 	                    }
-	                    
-	                    Enumeration<String> leases = this.currentLeases.keys();
-	                    while (leases.hasMoreElements()) {
-	                        String mac = leases.nextElement();
-	                        Log.d(TAG, "Mac-Address: '"+mac+"' - Known Whitelist: "+knownWhitelists.contains(mac)+" - Known Lease: "+knownLeases.contains(mac));
-	                        if (knownLeases.contains(mac) == false) {
-	                            if (knownWhitelists.contains(mac) == false) {
-	                            	// AddClientData to TetherApplication-Class for AccessControlActivity
-	                            	TetherService.this.application.addClientData(this.currentLeases.get(mac));
-	                            	
-	                            	if (accessControlActive) {
-	                            		if (notificationType == 1 || notificationType == 2) {
-	                            			this.sendClientMessage(this.currentLeases.get(mac),
-	                            					TetherApplication.CLIENT_CONNECT_NOTAUTHORIZED);
-	                            		}
-	                            	}
-	                            	else {
-	                            		if (notificationType == 2) {
-	                            			this.sendClientMessage(this.currentLeases.get(mac),
-	                            					TetherApplication.CLIENT_CONNECT_ACDISABLED);
-	                            		}
-	                            	}
-	                                this.knownLeases.add(mac);
-	                            } else if (knownWhitelists.contains(mac) == true) {
-	                            	// AddClientData to TetherApplication-Class for AccessControlActivity
-	                            	ClientData clientData = this.currentLeases.get(mac);
-	                            	clientData.setAccessAllowed(true);
-	                            	TetherService.this.application.addClientData(clientData);
-	                            	
-	                                if (notificationType == 2) {
-	                                    this.sendClientMessage(this.currentLeases.get(mac),
-	                                    		TetherApplication.CLIENT_CONNECT_AUTHORIZED);
-	                                    this.knownLeases.add(mac);
-	                                }
-	                            }
-	                            notifyActivity();
-	                        }
+	                    if (events.isEmpty() == false) {
+	                    	notifyActivity();
 	                    }
-	                    this.timestampLeasefile = currentTimestampLeaseFile;
+	                    this.leasesChanged = false;
 	                } catch (Exception e) {
 	                    Log.d(TAG, "Unexpected error detected - Here is what I know: " + e.getMessage());
 	                    e.printStackTrace();
 	                }
 	            }
+	            
+	            // Checking which clients are still reachable
+	            if (this.presenceTracker.update(this.appearedClients, this.vanishedClients)) {
+	            	this.updatePresence();
+	            }
+	            
+	            // Reading the byte-counters of all clients at once
+	            if (this.announcedClients.isEmpty() == false) {
+	            	this.updateAccounting();
+	            }
 	            try {
-	                Thread.sleep(3000);
+	            	int changes = leaseWatcher.await(INTERVAL * 1000);
+	            	this.leasesChanged |= (changes & LeaseWatcher.CHANGED_LEASES) != 0;
+	            	this.whitelistChanged |= (changes & LeaseWatcher.CHANGED_WHITELIST) != 0;
 	            } catch (InterruptedException e) {
 	                Thread.currentThread().interrupt();
 	            }
 	        }
+	        leaseWatcher.stop();
+	        this.presenceTracker.close();
 	    }
 
+	    private void clientJoined(ClientData clientData, boolean accessControlActive, int notificationType) {
+	    	String mac = clientData.getMacAddress();
+	    	boolean whitelisted = knownWhitelists.contains(clientData.getMac());
+	    	Log.d(TAG, "Mac-Address: '"+mac+"' - Known Whitelist: "+whitelisted);
+	    	if (whitelisted) {
+	    		clientData.setAccessAllowed(true);
+	    	}
+	    	// AddClientData to TetherApplication-Class for AccessControlActivity
+	    	TetherService.this.application.addClientData(clientData);
+	    	this.announcedClients.put(clientData.getMac(), clientData);
+	    	this.accounting.add(mac, clientData.getIpAddress());
+
+	    	if (whitelisted) {
+	    		if (notificationType == 2) {
+	    			this.sendClientMessage(clientData, TetherApplication.CLIENT_CONNECT_AUTHORIZED);
+	    		}
+	    	}
+	    	else if (accessControlActive) {
+	    		if (notificationType == 1 || notificationType == 2) {
+	    			this.sendClientMessage(clientData, TetherApplication.CLIENT_CONNECT_NOTAUTHORIZED);
+	    		}
+	    	}
+	    	else {
+	    		if (notificationType == 2) {
+	    			this.sendClientMessage(clientData, TetherApplication.CLIENT_CONNECT_ACDISABLED);
+	    		}
+	    	}
+	    }
+	    
+	    private void clientLeft(String mac) {
+	    	Log.d(TAG, "Removing '"+mac+"' from known-leases!");
+	    	this.accounting.remove(mac);
+	    	this.announcedClients.remove(mac);
+	    	TetherService.this.application.removeClientMac(mac);
+	    }
+	    
+	    private void clientRenewed(ClientData clientData) {
+	    	// Keeping the announced object (it is referenced by AccessControlActivity)
+	    	ClientData announced = this.announcedClients.get(clientData.getMac());
+	    	if (announced == null) {
+	    		return;
+	    	}
+	    	announced.setIpAddress(clientData.getIpAddress());
+	    	announced.setClientName(clientData.getClientName());
+	    	announced.setConnectTime(clientData.getConnectTime());
+	    	this.accounting.add(announced.getMacAddress(), announced.getIpAddress());
+	    }
+	    
+	    private void updatePresence() {
+	    	boolean changed = false;
+	    	for (String mac : this.appearedClients) {
+	    		changed |= this.setConnected(mac, true);
+	    	}
+	    	for (String mac : this.vanishedClients) {
+	    		Log.d(TAG, "Client '"+mac+"' is not reachable anymore.");
+	    		changed |= this.setConnected(mac, false);
+	    	}
+	    	if (changed) {
+	    		notifyActivity();
+	    	}
+	    }
+	    
+	    private boolean setConnected(String mac, boolean connected) {
+	    	boolean changed = false;
+	    	ClientData clientData = this.announcedClients.get(mac);
+	    	if (clientData != null && clientData.isConnected() != connected) {
+	    		clientData.setConnected(connected);
+	    		changed = true;
+	    	}
+	    	return changed;
+	    }
+	    
+	    private void updateAccounting() {
+	    	Hashtable<String, long[]> counters = this.accounting.read();
+	    	if (counters == null) {
+	    		return;
+	    	}
+	    	for (String mac : counters.keySet()) {
+	    		long[] bytes = counters.get(mac);
+	    		ClientData clientData = this.announcedClients.get(mac);
+	    		if (clientData != null) {
+	    			clientData.setBytesUp(bytes[IptablesCounterParser.BYTES_UP]);
+	    			clientData.setBytesDown(bytes[IptablesCounterParser.BYTES_DOWN]);
+	    		}
+	    	}
+	    }
+	    
 	    private void notifyActivity(){
 	    	if (AccessControlActivity.currentInstance != null){
 	    		AccessControlActivity.currentInstance.clientConnectHandler.sendMessage(new Message());
@@ -1087,52 +1493,37 @@ public class TetherService extends Service {
 	    }
 	}
    	
-   	class TrafficCounter implements Runnable {
-   		private static final int INTERVAL = 2;  // Sample rate in seconds.
-   		long previousDownload;
-   		long previousUpload;
-   		long lastTimeChecked;
-   		public void run() {
-   			this.previousDownload = this.previousUpload = 0;
-   			this.lastTimeChecked = new Date().getTime();
-
-   			String tetherNetworkDevice = TetherService.this.application.getTetherNetworkDevice();
-   			long [] startCount = TetherService.this.application.coretask.getDataTraffic(tetherNetworkDevice);
-   			
-   			while (!Thread.currentThread().isInterrupted()) {
-		        // Check data count
-		        long [] trafficCount = TetherService.this.application.coretask.getDataTraffic(tetherNetworkDevice);
-		        long currentTime = new Date().getTime();
-		        float elapsedTime = (float) ((currentTime - this.lastTimeChecked) / 1000);
-		        this.lastTimeChecked = currentTime;
-		        
-		        /**
-		         * [0] - totalUpload
-		         * [1] - totalDownload
-		         * [2] - uploadRate
-		         * [3] - downloadRate
-		         */
-		        long[] trafficData = new long[4];
-		        trafficData[0] = trafficCount[0]-startCount[0];
-		        trafficData[1] = trafficCount[1]-startCount[1];
-		        trafficData[2] = (long) ((trafficData[0] - this.previousUpload)*8/elapsedTime);
-		        trafficData[3] = (long) ((trafficData[1] - this.previousDownload)*8/elapsedTime);
-		        
-		        // Send traffic-broadcast
-		        sendTrafficBroadcast(trafficData);
-		        
-		        if (trafficData[2] > 0 && trafficData[3] > 0) {
-			        TetherService.this.timestampCounterUpdate = System.currentTimeMillis();
-		        }
-		        
-		        this.previousUpload = trafficData[0];
-				this.previousDownload = trafficData[1];
-                try {
-                    Thread.sleep(INTERVAL * 1000);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                }
-   			}
+   	class TrafficCounter implements InterfaceStatsSampler.Listener {
+   		private static final int INTERVAL = 2;  // Broadcast rate in seconds.
+   		long previousDownload = 0;
+   		long previousUpload = 0;
+   		long lastTimeChecked = new Date().getTime();
+
+   		public void onSample(InterfaceStats stats) {
+	        long currentTime = stats.getTimestamp();
+	        if (currentTime - this.lastTimeChecked < INTERVAL * 1000) {
+	        	return;
+	        }
+	        float elapsedTime = (float) ((currentTime - this.lastTimeChecked) / 1000);
+	        this.lastTimeChecked = currentTime;
+	        
+	        /**
+	         * [0] - totalUpload
+	         * [1] - totalDownload
+	         * [2] - uploadRate
+	         * [3] - downloadRate
+	         */
+	        long[] trafficData = new long[4];
+	        trafficData[0] = stats.getTetherRxBytes();
+	        trafficData[1] = stats.getTetherTxBytes();
+	        trafficData[2] = (long) ((trafficData[0] - this.previousUpload)*8/elapsedTime);
+	        trafficData[3] = (long) ((trafficData[1] - this.previousDownload)*8/elapsedTime);
+	        
+	        // Send traffic-broadcast
+	        sendTrafficBroadcast(trafficData);
+	        
+	        this.previousUpload = trafficData[0];
+			this.previousDownload = trafficData[1];
    		}
    	}
 
@@ -1310,32 +1701,32 @@ public class TetherService extends Service {
    		}
    	}
 
-  	class ShutdownIdleChecker implements Runnable {
-  		private static final int INTERVAL = 1;  // Interval in seconds.
+  	class ShutdownIdleChecker implements InterfaceStatsSampler.Listener {
+  		long idleMilliseconds = (TetherService.this.application.settings.getInt("shutdownidlepref", 2))*60*1000;
+  		long previousRx = 0;
+  		long previousTx = 0;
 
-	    public void run() {
-   			long idleMilliseconds = (TetherService.this.application.settings.getInt("shutdownidlepref", 2))*60*1000;
-   			while (!Thread.currentThread().isInterrupted()) {
+	    public void onSample(InterfaceStats stats) {
+	    	// Traffic in both directions counts as activity
+	    	if (stats.getTetherRxBytes() > this.previousRx && stats.getTetherTxBytes() > this.previousTx) {
+	    		TetherService.this.timestampCounterUpdate = stats.getTimestamp();
+	    	}
+	    	this.previousRx = stats.getTetherRxBytes();
+	    	this.previousTx = stats.getTetherTxBytes();
 
-   				long[] countdown = new long[1];
+			long[] countdown = new long[1];
 
-   				countdown[0] = ((TetherService.this.timestampCounterUpdate+idleMilliseconds)-System.currentTimeMillis());
+			countdown[0] = ((TetherService.this.timestampCounterUpdate+idleMilliseconds)-System.currentTimeMillis());
 
-		        // Send traffic-broadcast
-		        sendCountdownBroadcast(countdown);
+	        // Send traffic-broadcast
+	        sendCountdownBroadcast(countdown);
 
-   				if ((TetherService.this.timestampCounterUpdate+idleMilliseconds) < System.currentTimeMillis()) {
-		        	Log.d(TAG, "Automatic Shutdown: Idle time reached..." + TetherService.this.application.settings.getInt("shutdownidlepref", 2) + " minute(s).");
-   					TetherService.this.application.preferenceEditor.putBoolean("autoshutdownidle", true);
-   		 	   		TetherService.this.application.preferenceEditor.commit();
-   					sendShutdownBroadcast();
-   				}
-                try {
-                    Thread.sleep(INTERVAL * 1000);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                }
-   			}
+			if ((TetherService.this.timestampCounterUpdate+idleMilliseconds) < System.currentTimeMillis()) {
+	        	Log.d(TAG, "Automatic Shutdown: Idle time reached..." + TetherService.this.application.settings.getInt("shutdownidlepref", 2) + " minute(s).");
+				TetherService.this.application.preferenceEditor.putBoolean("autoshutdownidle", true);
+	 	   		TetherService.this.application.preferenceEditor.commit();
+				sendShutdownBroadcast();
+			}
    		}
    		
    		private void sendShutdownBroadcast() {
@@ -1394,9 +1785,10 @@ public class TetherService extends Service {
    	}
 
 
-  	class ShutdownQuotaChecker implements Runnable {
-  		private static final int INTERVAL = 1;  // Interval in seconds.
-   		public void run() {
+  	class ShutdownQuotaChecker implements InterfaceStatsSampler.Listener {
+  		long QuotaMaxMB;
+
+  		ShutdownQuotaChecker() {
    			/*
    			 * From setupview.xml - for Slider instead of manual
    					<com.googlecode.android.wifi.tether.ui.SeekBarPreference android:key="quotashutdownidlepref"
@@ -1431,7 +1823,7 @@ public class TetherService extends Service {
 				Updatestring = true;
 			}
 
-   			long QuotaMaxMB = (Long.parseLong(QuotaMaxMBstring) * (1024 * 1024));
+   			QuotaMaxMB = (Long.parseLong(QuotaMaxMBstring) * (1024 * 1024));
    			if (QuotaMaxMB < 1) {
    				QuotaMaxMB = 1;
 				QuotaMaxMBstring = "1";
@@ -1442,32 +1834,24 @@ public class TetherService extends Service {
 				TetherService.this.application.preferenceEditor.putString("quotamanualshutdownidlepref", QuotaMaxMBstring);
    				TetherService.this.application.preferenceEditor.commit();
    			}
-   			
-   			String tetherNetworkDevice = TetherService.this.application.getTetherNetworkDevice();
-	   		long [] startCount = TetherService.this.application.coretask.getDataTraffic(tetherNetworkDevice);
+   		}
 
-	   		while (!Thread.currentThread().isInterrupted()) {
-		        long [] trafficCount = TetherService.this.application.coretask.getDataTraffic(tetherNetworkDevice);
+   		public void onSample(InterfaceStats stats) {
+   			long usedBytes = stats.getTetherTotalBytes();
 
-		        long[] quotaData = new long[2];
-		        quotaData[0] = (trafficCount[0]-startCount[0])+(trafficCount[1]-startCount[1]);
-		        quotaData[1] = QuotaMaxMB;
+	        long[] quotaData = new long[2];
+	        quotaData[0] = usedBytes;
+	        quotaData[1] = QuotaMaxMB;
 
-		        // Send traffic-broadcast
-		        sendQuotaBroadcast(quotaData);
+	        // Send traffic-broadcast
+	        sendQuotaBroadcast(quotaData);
 
-		        if ((trafficCount[0]-startCount[0])+(trafficCount[1]-startCount[1]) >= QuotaMaxMB) {
-		        	Log.d(TAG, "Automatic Shutdown: Qouta limit reached..." + ((QuotaMaxMB / 1024) / 1024) + " MB(s).");
-   					TetherService.this.application.preferenceEditor.putBoolean("autoshutdownquota", true);
-   		 	   		TetherService.this.application.preferenceEditor.commit();
-   					sendShutdownBroadcast();
-   				}
-                try {
-                    Thread.sleep(INTERVAL * 1000);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                }
-   			}
+	        if (usedBytes >= QuotaMaxMB) {
+	        	Log.d(TAG, "Automatic Shutdown: Qouta limit reached..." + ((QuotaMaxMB / 1024) / 1024) + " MB(s).");
+				TetherService.this.application.preferenceEditor.putBoolean("autoshutdownquota", true);
+	 	   		TetherService.this.application.preferenceEditor.commit();
+				sendShutdownBroadcast();
+			}
    		}
    		
    		private void sendShutdownBroadcast() {
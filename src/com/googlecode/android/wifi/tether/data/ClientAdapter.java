@@ -68,9 +68,10 @@ public class ClientAdapter extends BaseAdapter {
 	}
 	
 	public synchronized void removeClient(String mac) {
+		long packedMac = MacAddress.parse(mac);
 		for (int i=0;i<this.rows.size();i++) {
     		ClientData tmpClientData = this.rows.get(i);
-    		if (tmpClientData.getMacAddress().equals(mac)) {
+    		if (tmpClientData.getMac() == packedMac) {
     			this.rows.remove(i);
     			break;
     		}
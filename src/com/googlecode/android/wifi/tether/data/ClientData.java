@@ -18,9 +18,12 @@ public class ClientData {
 	private boolean connected;
 	private boolean accessAllowed;
 	private String macAddress;
+	private long mac = MacAddress.INVALID;
 	private String clientName;
 	private String ipAddress;
 	private Date connectTime;
+	private long bytesUp;
+	private long bytesDown;
 
 	public boolean isConnected() {
 		return connected;
@@ -39,6 +42,13 @@ public class ClientData {
 	}
 	public void setMacAddress(String macAddress) {
 		this.macAddress = macAddress;
+		this.mac = MacAddress.parse(macAddress);
+	}
+	/**
+	 * @return Packed address (see MacAddress); MacAddress.INVALID if not parseable.
+	 */
+	public long getMac() {
+		return mac;
 	}
 	public String getClientName() {
 		return clientName;
@@ -58,4 +68,16 @@ public class ClientData {
 	public void setConnectTime(Date connectTime) {
 		this.connectTime = connectTime;
 	}
+	public long getBytesUp() {
+		return bytesUp;
+	}
+	public void setBytesUp(long bytesUp) {
+		this.bytesUp = bytesUp;
+	}
+	public long getBytesDown() {
+		return bytesDown;
+	}
+	public void setBytesDown(long bytesDown) {
+		this.bytesDown = bytesDown;
+	}
 }
@@ -0,0 +1,139 @@
+/**
+ *  This program is free software; you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 3 of the License, or (at your option) any later
+ *  version.
+ *  You should have received a copy of the GNU General Public License along with
+ *  this program; if not, see <http://www.gnu.org/licenses/>.
+ *  Use this application at your own risk.
+ *
+ *  Copyright (c) 2009 by Harald Mueller and Sofia Lemons.
+ */
+
+package com.googlecode.android.wifi.tether.data;
+
+/**
+ * Immutable snapshot of the tether- and uplink-counters taken in one tick.
+ *
+ * All counters are totals since the sampler was started (the kernel-values at
+ * start-time have already been subtracted).
+ */
+public final class InterfaceStats {
+	private final long timestamp;
+	private final String tetherDevice;
+	private final String uplinkDevice;
+
+	private final long tetherRxBytes;
+	private final long tetherTxBytes;
+	private final long tetherRxPackets;
+	private final long tetherTxPackets;
+	private final long tetherRxErrors;
+	private final long tetherTxErrors;
+	private final long tetherRxDrops;
+	private final long tetherTxDrops;
+
+	private final long uplinkRxBytes;
+	private final long uplinkTxBytes;
+	private final long uplinkRxPackets;
+	private final long uplinkTxPackets;
+	private final long uplinkRxErrors;
+	private final long uplinkTxErrors;
+	private final long uplinkRxDrops;
+	private final long uplinkTxDrops;
+
+	/**
+	 * @param tether - {rxBytes, txBytes, rxPackets, txPackets, rxErrors, txErrors, rxDrops, txDrops}
+	 * @param uplink - same layout as 'tether'
+	 */
+	public InterfaceStats(long timestamp, String tetherDevice, long[] tether, String uplinkDevice, long[] uplink) {
+		this.timestamp = timestamp;
+		this.tetherDevice = tetherDevice;
+		this.uplinkDevice = uplinkDevice;
+		this.tetherRxBytes = tether[0];
+		this.tetherTxBytes = tether[1];
+		this.tetherRxPackets = tether[2];
+		this.tetherTxPackets = tether[3];
+		this.tetherRxErrors = tether[4];
+		this.tetherTxErrors = tether[5];
+		this.tetherRxDrops = tether[6];
+		this.tetherTxDrops = tether[7];
+		this.uplinkRxBytes = uplink[0];
+		this.uplinkTxBytes = uplink[1];
+		this.uplinkRxPackets = uplink[2];
+		this.uplinkTxPackets = uplink[3];
+		this.uplinkRxErrors = uplink[4];
+		this.uplinkTxErrors = uplink[5];
+		this.uplinkRxDrops = uplink[6];
+		this.uplinkTxDrops = uplink[7];
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+	public String getTetherDevice() {
+		return tetherDevice;
+	}
+	/**
+	 * @return Interface holding the default-route; null if none was found.
+	 */
+	public String getUplinkDevice() {
+		return uplinkDevice;
+	}
+
+	public long getTetherRxBytes() {
+		return tetherRxBytes;
+	}
+	public long getTetherTxBytes() {
+		return tetherTxBytes;
+	}
+	public long getTetherRxPackets() {
+		return tetherRxPackets;
+	}
+	public long getTetherTxPackets() {
+		return tetherTxPackets;
+	}
+	public long getTetherRxErrors() {
+		return tetherRxErrors;
+	}
+	public long getTetherTxErrors() {
+		return tetherTxErrors;
+	}
+	public long getTetherRxDrops() {
+		return tetherRxDrops;
+	}
+	public long getTetherTxDrops() {
+		return tetherTxDrops;
+	}
+
+	public long getUplinkRxBytes() {
+		return uplinkRxBytes;
+	}
+	public long getUplinkTxBytes() {
+		return uplinkTxBytes;
+	}
+	public long getUplinkRxPackets() {
+		return uplinkRxPackets;
+	}
+	public long getUplinkTxPackets() {
+		return uplinkTxPackets;
+	}
+	public long getUplinkRxErrors() {
+		return uplinkRxErrors;
+	}
+	public long getUplinkTxErrors() {
+		return uplinkTxErrors;
+	}
+	public long getUplinkRxDrops() {
+		return uplinkRxDrops;
+	}
+	public long getUplinkTxDrops() {
+		return uplinkTxDrops;
+	}
+
+	/**
+	 * @return Bytes transferred over the tether-interface (both directions).
+	 */
+	public long getTetherTotalBytes() {
+		return tetherRxBytes + tetherTxBytes;
+	}
+}
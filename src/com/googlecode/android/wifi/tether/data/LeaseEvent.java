@@ -0,0 +1,55 @@
+/**
+ *  This program is free software; you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 3 of the License, or (at your option) any later
+ *  version.
+ *  You should have received a copy of the GNU General Public License along with
+ *  this program; if not, see <http://www.gnu.org/licenses/>.
+ *  Use this application at your own risk.
+ *
+ *  Copyright (c) 2009 by Harald Mueller and Sofia Lemons.
+ */
+
+package com.googlecode.android.wifi.tether.data;
+
+/**
+ * Change of a single dnsmasq-lease, as reported by LeaseDiff.
+ */
+public class LeaseEvent {
+
+	public static final int CLIENT_JOINED  = 0;
+	public static final int CLIENT_LEFT    = 1;
+	public static final int CLIENT_RENEWED = 2;
+
+	private final int type;
+	private final ClientData clientData;
+	private final ClientData previousClientData;
+
+	public LeaseEvent(int type, ClientData clientData, ClientData previousClientData) {
+		this.type = type;
+		this.clientData = clientData;
+		this.previousClientData = previousClientData;
+	}
+
+	/**
+	 * @return CLIENT_JOINED, CLIENT_LEFT or CLIENT_RENEWED
+	 */
+	public int getType() {
+		return type;
+	}
+	public String getMacAddress() {
+		return (clientData != null ? clientData : previousClientData).getMacAddress();
+	}
+	/**
+	 * @return Current lease; null for CLIENT_LEFT.
+	 */
+	public ClientData getClientData() {
+		return clientData;
+	}
+	/**
+	 * @return Lease before the change; null for CLIENT_JOINED.
+	 */
+	public ClientData getPreviousClientData() {
+		return previousClientData;
+	}
+}
@@ -0,0 +1,132 @@
+/**
+ *  This program is free software; you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 3 of the License, or (at your option) any later
+ *  version.
+ *  You should have received a copy of the GNU General Public License along with
+ *  this program; if not, see <http://www.gnu.org/licenses/>.
+ *  Use this application at your own risk.
+ *
+ *  Copyright (c) 2009 by Harald Mueller and Sofia Lemons.
+ */
+
+package com.googlecode.android.wifi.tether.data;
+
+/**
+ * MAC-address packed into the lower 48 bits of a long.
+ *
+ * The static parse-methods do not allocate; MacSet and MacMap work on the
+ * packed values directly. Upper- and lower-case notations map to the same value.
+ */
+public final class MacAddress {
+
+	public static final long INVALID = -1;
+
+	private final long value;
+
+	public MacAddress(long value) {
+		this.value = value;
+	}
+
+	/**
+	 * @return Instance for "aa:bb:cc:dd:ee:ff"; null if 'mac' is not a valid address.
+	 */
+	public static MacAddress valueOf(String mac) {
+		long value = parse(mac);
+		return value == INVALID ? null : new MacAddress(value);
+	}
+
+	/**
+	 * @return Packed value of "aa:bb:cc:dd:ee:ff" (':' or '-' as separator); INVALID on error.
+	 */
+	public static long parse(CharSequence mac) {
+		if (mac == null || mac.length() != 17) {
+			return INVALID;
+		}
+		long value = 0;
+		for (int i = 0; i < 17; i++) {
+			char c = mac.charAt(i);
+			if (i % 3 == 2) {
+				if (c != ':' && c != '-') {
+					return INVALID;
+				}
+				continue;
+			}
+			int digit = Character.digit(c, 16);
+			if (digit < 0) {
+				return INVALID;
+			}
+			value = (value << 4) | digit;
+		}
+		return value;
+	}
+
+	/**
+	 * Same as parse(CharSequence) for ASCII-bytes, e.g. from a /proc-file.
+	 */
+	public static long parse(byte[] data, int offset, int length) {
+		if (length != 17) {
+			return INVALID;
+		}
+		long value = 0;
+		for (int i = 0; i < 17; i++) {
+			int c = data[offset + i];
+			if (i % 3 == 2) {
+				if (c != ':' && c != '-') {
+					return INVALID;
+				}
+				continue;
+			}
+			int digit = Character.digit(c, 16);
+			if (digit < 0) {
+				return INVALID;
+			}
+			value = (value << 4) | digit;
+		}
+		return value;
+	}
+
+	/**
+	 * @return Lower-case "aa:bb:cc:dd:ee:ff"-notation of a packed value.
+	 */
+	public static String toString(long value) {
+		char[] chars = new char[17];
+		for (int i = 5; i >= 0; i--) {
+			int octet = (int) (value & 0xff);
+			chars[i * 3] = Character.forDigit(octet >> 4, 16);
+			chars[i * 3 + 1] = Character.forDigit(octet & 0xf, 16);
+			if (i < 5) {
+				chars[i * 3 + 2] = ':';
+			}
+			value >>>= 8;
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Spreads the bits of a packed value for use as table-index.
+	 */
+	static int hash(long value) {
+		value *= 0x9E3779B97F4A7C15L;
+		return (int) (value ^ (value >>> 32));
+	}
+
+	public long longValue() {
+		return this.value;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof MacAddress && ((MacAddress) o).value == this.value;
+	}
+
+	@Override
+	public int hashCode() {
+		return hash(this.value);
+	}
+
+	@Override
+	public String toString() {
+		return toString(this.value);
+	}
+}
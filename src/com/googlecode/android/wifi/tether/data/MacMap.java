@@ -0,0 +1,201 @@
+/**
+ *  This program is free software; you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 3 of the License, or (at your option) any later
+ *  version.
+ *  You should have received a copy of the GNU General Public License along with
+ *  this program; if not, see <http://www.gnu.org/licenses/>.
+ *  Use this application at your own risk.
+ *
+ *  Copyright (c) 2009 by Harald Mueller and Sofia Lemons.
+ */
+
+package com.googlecode.android.wifi.tether.data;
+
+import java.util.ArrayList;
+
+/**
+ * Map from packed MAC-address (see MacAddress) to V, using open addressing
+ * with linear probing. Keys are never boxed.
+ */
+public class MacMap<V> {
+
+	private static final long EMPTY = MacAddress.INVALID;
+
+	private long[] keys;
+	private Object[] values;
+	private int size = 0;
+
+	public MacMap() {
+		this(16);
+	}
+
+	public MacMap(int expectedSize) {
+		int capacity = 16;
+		while (capacity < expectedSize * 2) {
+			capacity <<= 1;
+		}
+		this.keys = newKeys(capacity);
+		this.values = new Object[capacity];
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	public boolean containsKey(long mac) {
+		return mac != EMPTY && this.keys[this.indexOf(mac)] == mac;
+	}
+
+	public boolean containsKey(String mac) {
+		return this.containsKey(MacAddress.parse(mac));
+	}
+
+	@SuppressWarnings("unchecked")
+	public V get(long mac) {
+		if (mac == EMPTY) {
+			return null;
+		}
+		int index = this.indexOf(mac);
+		return this.keys[index] == mac ? (V) this.values[index] : null;
+	}
+
+	public V get(String mac) {
+		return this.get(MacAddress.parse(mac));
+	}
+
+	/**
+	 * @return Previous value; null if there was none. Invalid keys are ignored.
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long mac, V value) {
+		if (mac == EMPTY) {
+			return null;
+		}
+		int index = this.indexOf(mac);
+		if (this.keys[index] == mac) {
+			V previous = (V) this.values[index];
+			this.values[index] = value;
+			return previous;
+		}
+		this.keys[index] = mac;
+		this.values[index] = value;
+		if (++this.size * 2 > this.keys.length) {
+			this.rehash(this.keys.length << 1);
+		}
+		return null;
+	}
+
+	public V put(String mac, V value) {
+		return this.put(MacAddress.parse(mac), value);
+	}
+
+	/**
+	 * @return Removed value; null if 'mac' was not present.
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(long mac) {
+		if (mac == EMPTY) {
+			return null;
+		}
+		int index = this.indexOf(mac);
+		if (this.keys[index] != mac) {
+			return null;
+		}
+		V previous = (V) this.values[index];
+		this.keys[index] = EMPTY;
+		this.values[index] = null;
+		this.size--;
+		// Move following entries of the cluster back into the gap
+		int mask = this.keys.length - 1;
+		int gap = index;
+		int next = (index + 1) & mask;
+		while (this.keys[next] != EMPTY) {
+			int home = MacAddress.hash(this.keys[next]) & mask;
+			if (((next - home) & mask) >= ((next - gap) & mask)) {
+				this.keys[gap] = this.keys[next];
+				this.values[gap] = this.values[next];
+				this.keys[next] = EMPTY;
+				this.values[next] = null;
+				gap = next;
+			}
+			next = (next + 1) & mask;
+		}
+		return previous;
+	}
+
+	public V remove(String mac) {
+		return this.remove(MacAddress.parse(mac));
+	}
+
+	public void clear() {
+		for (int i = 0; i < this.keys.length; i++) {
+			this.keys[i] = EMPTY;
+			this.values[i] = null;
+		}
+		this.size = 0;
+	}
+
+	/**
+	 * @return Copy of all keys in table-order.
+	 */
+	public long[] keys() {
+		long[] result = new long[this.size];
+		int count = 0;
+		for (long mac : this.keys) {
+			if (mac != EMPTY) {
+				result[count++] = mac;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return Copy of all values in table-order (same order as keys()).
+	 */
+	@SuppressWarnings("unchecked")
+	public ArrayList<V> values() {
+		ArrayList<V> result = new ArrayList<V>(this.size);
+		for (int i = 0; i < this.keys.length; i++) {
+			if (this.keys[i] != EMPTY) {
+				result.add((V) this.values[i]);
+			}
+		}
+		return result;
+	}
+
+	private int indexOf(long mac) {
+		int mask = this.keys.length - 1;
+		int index = MacAddress.hash(mac) & mask;
+		while (this.keys[index] != EMPTY && this.keys[index] != mac) {
+			index = (index + 1) & mask;
+		}
+		return index;
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = this.keys;
+		Object[] oldValues = this.values;
+		this.keys = newKeys(capacity);
+		this.values = new Object[capacity];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				int index = this.indexOf(oldKeys[i]);
+				this.keys[index] = oldKeys[i];
+				this.values[index] = oldValues[i];
+			}
+		}
+	}
+
+	private static long[] newKeys(int capacity) {
+		long[] keys = new long[capacity];
+		for (int i = 0; i < capacity; i++) {
+			keys[i] = EMPTY;
+		}
+		return keys;
+	}
+}
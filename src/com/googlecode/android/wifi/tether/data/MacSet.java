@@ -0,0 +1,160 @@
+/**
+ *  This program is free software; you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 3 of the License, or (at your option) any later
+ *  version.
+ *  You should have received a copy of the GNU General Public License along with
+ *  this program; if not, see <http://www.gnu.org/licenses/>.
+ *  Use this application at your own risk.
+ *
+ *  Copyright (c) 2009 by Harald Mueller and Sofia Lemons.
+ */
+
+package com.googlecode.android.wifi.tether.data;
+
+import java.util.Collection;
+
+/**
+ * Set of packed MAC-addresses (see MacAddress) using open addressing with
+ * linear probing. Nothing is boxed; lookups by String parse in place.
+ */
+public class MacSet {
+
+	private static final long EMPTY = MacAddress.INVALID;
+
+	private long[] table;
+	private int size = 0;
+
+	public MacSet() {
+		this(16);
+	}
+
+	public MacSet(int expectedSize) {
+		int capacity = 16;
+		while (capacity < expectedSize * 2) {
+			capacity <<= 1;
+		}
+		this.table = newTable(capacity);
+	}
+
+	/**
+	 * Adds all valid addresses of 'macs'; invalid entries are skipped.
+	 */
+	public MacSet(Collection<String> macs) {
+		this(macs.size());
+		for (String mac : macs) {
+			this.add(MacAddress.parse(mac));
+		}
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	public boolean contains(long mac) {
+		return mac != EMPTY && this.table[this.indexOf(mac)] == mac;
+	}
+
+	public boolean contains(String mac) {
+		return this.contains(MacAddress.parse(mac));
+	}
+
+	/**
+	 * @return false if 'mac' was already present or is invalid.
+	 */
+	public boolean add(long mac) {
+		if (mac == EMPTY) {
+			return false;
+		}
+		int index = this.indexOf(mac);
+		if (this.table[index] == mac) {
+			return false;
+		}
+		this.table[index] = mac;
+		if (++this.size * 2 > this.table.length) {
+			this.rehash(this.table.length << 1);
+		}
+		return true;
+	}
+
+	public boolean remove(long mac) {
+		if (mac == EMPTY) {
+			return false;
+		}
+		int index = this.indexOf(mac);
+		if (this.table[index] != mac) {
+			return false;
+		}
+		this.table[index] = EMPTY;
+		this.size--;
+		// Move following entries of the cluster back into the gap
+		int mask = this.table.length - 1;
+		int gap = index;
+		int next = (index + 1) & mask;
+		while (this.table[next] != EMPTY) {
+			int home = MacAddress.hash(this.table[next]) & mask;
+			if (((next - home) & mask) >= ((next - gap) & mask)) {
+				this.table[gap] = this.table[next];
+				this.table[next] = EMPTY;
+				gap = next;
+			}
+			next = (next + 1) & mask;
+		}
+		return true;
+	}
+
+	public void clear() {
+		for (int i = 0; i < this.table.length; i++) {
+			this.table[i] = EMPTY;
+		}
+		this.size = 0;
+	}
+
+	/**
+	 * @return Copy of all members in table-order.
+	 */
+	public long[] toArray() {
+		long[] result = new long[this.size];
+		int count = 0;
+		for (long mac : this.table) {
+			if (mac != EMPTY) {
+				result[count++] = mac;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return Slot holding 'mac' or the empty slot where it would be inserted.
+	 */
+	private int indexOf(long mac) {
+		int mask = this.table.length - 1;
+		int index = MacAddress.hash(mac) & mask;
+		while (this.table[index] != EMPTY && this.table[index] != mac) {
+			index = (index + 1) & mask;
+		}
+		return index;
+	}
+
+	private void rehash(int capacity) {
+		long[] old = this.table;
+		this.table = newTable(capacity);
+		for (long mac : old) {
+			if (mac != EMPTY) {
+				this.table[this.indexOf(mac)] = mac;
+			}
+		}
+	}
+
+	private static long[] newTable(int capacity) {
+		long[] table = new long[capacity];
+		for (int i = 0; i < capacity; i++) {
+			table[i] = EMPTY;
+		}
+		return table;
+	}
+}
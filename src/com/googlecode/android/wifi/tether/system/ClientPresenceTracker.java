@@ -0,0 +1,231 @@
+/**
+ *  This program is free software; you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 3 of the License, or (at your option) any later
+ *  version.
+ *  You should have received a copy of the GNU General Public License along with
+ *  this program; if not, see <http://www.gnu.org/licenses/>.
+ *  Use this application at your own risk.
+ *
+ *  Copyright (c) 2009 by Harald Mueller and Sofia Lemons.
+ */
+
+package com.googlecode.android.wifi.tether.system;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import com.googlecode.android.wifi.tether.data.MacAddress;
+
+import android.util.Log;
+
+/**
+ * Tracks which clients are reachable on the tether-interface, based on the
+ * kernel's neighbour-table in /proc/net/arp.
+ *
+ * An entry counts as present if its ATF_COM-flag (0x2) is set, i.e. the
+ * hardware-address has been resolved and not yet expired. The file is kept
+ * open and parsed in place; MAC-addresses are handled as packed values so that
+ * Strings are only created for clients which appeared or vanished.
+ */
+public class ClientPresenceTracker {
+
+	public static final String TAG = "TETHER -> ClientPresenceTracker";
+
+	public static final String PROC_NET_ARP = "/proc/net/arp";
+
+	private static final int ATF_COM = 0x2;
+
+	// Columns of /proc/net/arp
+	private static final int COLUMN_FLAGS  = 2;
+	private static final int COLUMN_MAC    = 3;
+	private static final int COLUMN_DEVICE = 5;
+
+	private final String filename;
+	private final byte[] deviceBytes;
+	private RandomAccessFile file = null;
+	private byte[] buffer = new byte[2048];
+
+	// Sorted MACs of the last and the current read
+	private long[] present = new long[16];
+	private int presentCount = 0;
+	private long[] scratch = new long[16];
+
+	public ClientPresenceTracker(String device) {
+		this(PROC_NET_ARP, device);
+	}
+
+	/**
+	 * @param filename - File in /proc/net/arp-format; allows reading recorded copies.
+	 * @param device - Interface-name (prefix) of the tether-interface.
+	 */
+	public ClientPresenceTracker(String filename, String device) {
+		this.filename = filename;
+		this.deviceBytes = device.getBytes();
+	}
+
+	/**
+	 * Re-reads the neighbour-table and reports clients which appeared or
+	 * vanished since the last call. Both lists are cleared first.
+	 *
+	 * @return true if anything changed; false if nothing changed or the table is not readable.
+	 */
+	public synchronized boolean update(ArrayList<String> appeared, ArrayList<String> vanished) {
+		appeared.clear();
+		vanished.clear();
+		int length = this.fill();
+		if (length < 0) {
+			return false;
+		}
+		int count = this.parse(length);
+		Arrays.sort(this.scratch, 0, count);
+
+		// Merge both sorted lists
+		int i = 0, j = 0;
+		while (i < this.presentCount || j < count) {
+			if (j >= count || (i < this.presentCount && this.present[i] < this.scratch[j])) {
+				vanished.add(MacAddress.toString(this.present[i++]));
+			}
+			else if (i >= this.presentCount || this.scratch[j] < this.present[i]) {
+				appeared.add(MacAddress.toString(this.scratch[j++]));
+			}
+			else {
+				i++;
+				j++;
+			}
+		}
+
+		long[] tmp = this.present;
+		this.present = this.scratch;
+		this.presentCount = count;
+		this.scratch = tmp;
+		return appeared.isEmpty() == false || vanished.isEmpty() == false;
+	}
+
+	/**
+	 * @return true if 'mac' was present at the last update().
+	 */
+	public synchronized boolean isPresent(String mac) {
+		long value = MacAddress.parse(mac);
+		return value != MacAddress.INVALID && Arrays.binarySearch(this.present, 0, this.presentCount, value) >= 0;
+	}
+
+	public synchronized void close() {
+		if (this.file != null) {
+			try {
+				this.file.close();
+			} catch (IOException e) {
+				// nothing
+			}
+			this.file = null;
+		}
+	}
+
+	/**
+	 * Reads the whole file into the buffer, growing it if required.
+	 */
+	private int fill() {
+		try {
+			if (this.file == null) {
+				this.file = new RandomAccessFile(this.filename, "r");
+			}
+			this.file.seek(0);
+			int length = 0;
+			int count;
+			while ((count = this.file.read(this.buffer, length, this.buffer.length - length)) > 0) {
+				length += count;
+				if (length == this.buffer.length) {
+					byte[] grown = new byte[this.buffer.length * 2];
+					System.arraycopy(this.buffer, 0, grown, 0, length);
+					this.buffer = grown;
+				}
+			}
+			return length;
+		} catch (IOException e) {
+			Log.d(TAG, "Unable to read "+this.filename+" - Here is what I know: "+e.getMessage());
+			this.close();
+			return -1;
+		}
+	}
+
+	/**
+	 * Collects the MACs of all complete entries on the tether-interface into 'scratch'.
+	 */
+	private int parse(int length) {
+		byte[] data = this.buffer;
+		int count = 0;
+		int pos = 0;
+		// Skip header-line
+		while (pos < length && data[pos] != '\n') {
+			pos++;
+		}
+		pos++;
+		while (pos < length) {
+			int column = 0;
+			int flags = 0;
+			long mac = -1;
+			boolean deviceMatch = false;
+			while (pos < length && data[pos] != '\n') {
+				if (data[pos] == ' ') {
+					pos++;
+					continue;
+				}
+				int start = pos;
+				while (pos < length && data[pos] != ' ' && data[pos] != '\n') {
+					pos++;
+				}
+				switch (column) {
+				case COLUMN_FLAGS:
+					flags = parseHex(data, start, pos);
+					break;
+				case COLUMN_MAC:
+					mac = MacAddress.parse(data, start, pos - start);
+					break;
+				case COLUMN_DEVICE:
+					deviceMatch = startsWith(data, start, pos - start, this.deviceBytes);
+					break;
+				}
+				column++;
+			}
+			pos++;
+			if (deviceMatch && mac > 0 && (flags & ATF_COM) != 0) {
+				if (count == this.scratch.length) {
+					long[] grown = new long[this.scratch.length * 2];
+					System.arraycopy(this.scratch, 0, grown, 0, count);
+					this.scratch = grown;
+				}
+				this.scratch[count++] = mac;
+			}
+		}
+		return count;
+	}
+
+	private static int parseHex(byte[] data, int start, int end) {
+		if (end - start > 2 && data[start] == '0' && (data[start + 1] == 'x' || data[start + 1] == 'X')) {
+			start += 2;
+		}
+		int value = 0;
+		for (int i = start; i < end; i++) {
+			int digit = Character.digit(data[i], 16);
+			if (digit < 0) {
+				return 0;
+			}
+			value = (value << 4) | digit;
+		}
+		return value;
+	}
+
+	private static boolean startsWith(byte[] data, int offset, int length, byte[] prefix) {
+		if (length < prefix.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (data[offset + i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
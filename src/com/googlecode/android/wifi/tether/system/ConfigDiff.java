@@ -0,0 +1,131 @@
+/**
+ *  This program is free software; you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 3 of the License, or (at your option) any later
+ *  version.
+ *  You should have received a copy of the GNU General Public License along with
+ *  this program; if not, see <http://www.gnu.org/licenses/>.
+ *  Use this application at your own risk.
+ *
+ *  Copyright (c) 2009 by Harald Mueller and Sofia Lemons.
+ */
+
+package com.googlecode.android.wifi.tether.system;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import android.util.Log;
+
+/**
+ * Maps the settings of tether.conf/hostapd.conf to the subsystems reading
+ * them, so a changed setting only restarts what depends on it.
+ *
+ * Settings without a known owner (driver, interfaces, setup-method, ...)
+ * map to DRIVER, which means stopping and starting tethering.
+ */
+public class ConfigDiff {
+
+	public static final String TAG = "TETHER -> ConfigDiff";
+
+	// Subsystems (in the order they are restarted)
+	public static final int ADDRESS = 1;   // Ip-address of the tether-interface
+	public static final int HOSTAPD = 2;
+	public static final int NAT     = 4;   // iptables-rules (incl. access control)
+	public static final int DNSMASQ = 8;
+	public static final int DRIVER  = 16;  // Full restart
+
+	private static final String[] NAMES = { "address", "hostapd", "nat", "dnsmasq", "driver" };
+
+	// Settings only read when dnsmasq, the nat-rules or the interface-address are set up
+	private static final HashMap<String, Integer> OWNERS = new HashMap<String, Integer>();
+	static {
+		OWNERS.put("dns.primary", DNSMASQ);
+		OWNERS.put("dns.secondary", DNSMASQ);
+		OWNERS.put("dhcp.iprange", DNSMASQ);
+		OWNERS.put("mss.clamping", NAT);
+		OWNERS.put("ip.network", NAT | DNSMASQ);
+		OWNERS.put("iptables.restore", NAT);
+		OWNERS.put("ip.gateway", ADDRESS | DNSMASQ);
+		OWNERS.put("ip.netmask", ADDRESS | DNSMASQ);
+	}
+
+	// Settings of the access point; hostapd reads them from hostapd.conf
+	private static final String[] RADIO_KEYS = {
+		"wifi.essid", "wifi.channel", "wifi.encryption", "wifi.encryption.key", "wifi.essid.hide"
+	};
+
+	/**
+	 * @return Subsystems which have to be restarted to apply the new
+	 * configuration; 0 if nothing changed.
+	 */
+	public static int diff(Map<String, String> oldTether, Map<String, String> newTether,
+			Map<String, String> oldHostapd, Map<String, String> newHostapd) {
+		// WEP is set up by iwconfig/wpa_supplicant, not by hostapd
+		boolean hostapd = "hostapd".equals(oldTether.get("wifi.driver")) && "hostapd".equals(newTether.get("wifi.driver")) &&
+				"wep".equals(oldTether.get("wifi.encryption")) == false && "wep".equals(newTether.get("wifi.encryption")) == false;
+		ArrayList<String> changed = changedKeys(oldTether, newTether);
+		int subsystems = 0;
+		for (String key : changed) {
+			Integer owner = OWNERS.get(key);
+			if (owner == null) {
+				owner = hostapd && isRadioKey(key) ? HOSTAPD : DRIVER;
+			}
+			if (owner == DRIVER) {
+				Log.d(TAG, "Setting "+key+" changed - tethering has to be restarted.");
+			}
+			subsystems |= owner;
+		}
+		if (changedKeys(oldHostapd, newHostapd).size() > 0) {
+			subsystems |= hostapd ? HOSTAPD : DRIVER;
+		}
+		// The routing-fix rule can only be removed with the network it was added for
+		if (changed.contains("ip.network") &&
+				("true".equals(oldTether.get("tether.fix.route")) || "true".equals(newTether.get("tether.fix.route")))) {
+			subsystems |= DRIVER;
+		}
+		// fixpersist.sh gets essid and channel on its command-line
+		if ((subsystems & HOSTAPD) != 0 && "true".equals(newTether.get("tether.fix.persist"))) {
+			subsystems |= DRIVER;
+		}
+		return subsystems;
+	}
+
+	/**
+	 * @return Keys which were added, removed or changed.
+	 */
+	public static ArrayList<String> changedKeys(Map<String, String> oldConfig, Map<String, String> newConfig) {
+		HashSet<String> keys = new HashSet<String>(oldConfig.keySet());
+		keys.addAll(newConfig.keySet());
+		ArrayList<String> changed = new ArrayList<String>();
+		for (String key : keys) {
+			String oldValue = oldConfig.get(key);
+			String newValue = newConfig.get(key);
+			if (oldValue == null ? newValue != null : oldValue.equals(newValue) == false) {
+				changed.add(key);
+			}
+		}
+		return changed;
+	}
+
+	public static String toString(int subsystems) {
+		StringBuilder names = new StringBuilder();
+		for (int i = 0; i < NAMES.length; i++) {
+			if ((subsystems & (1 << i)) != 0) {
+				names.append(names.length() > 0 ? ", " : "").append(NAMES[i]);
+			}
+		}
+		return names.length() > 0 ? names.toString() : "none";
+	}
+
+	private static boolean isRadioKey(String key) {
+		for (String radioKey : RADIO_KEYS) {
+			if (radioKey.equals(key)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
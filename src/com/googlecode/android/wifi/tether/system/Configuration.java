@@ -1,11 +1,6 @@
 package com.googlecode.android.wifi.tether.system;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.zip.GZIPInputStream;
 import android.annotation.SuppressLint;
 import android.util.Log;
 
@@ -1214,35 +1209,7 @@ public class Configuration {
 	}
 	
     public static boolean hasKernelFeature(String feature) {
-        BufferedReader in = null;
-        FileInputStream fis = null;
-        GZIPInputStream gzin = null;
-        try {
-                File cfg = new File("/proc/config.gz");
-                if (cfg.exists() == false) {
-                        return true;
-                }
-                fis = new FileInputStream(cfg);
-                gzin = new GZIPInputStream(fis);
-                String line = "";
-                in = new BufferedReader(new InputStreamReader(gzin));
-                while ((line = in.readLine()) != null) {
-                        if (line.startsWith(feature)) {
-                                return true;
-                        }
-                }
-        } catch (IOException e) {
-        	e.printStackTrace();
-        }
-        finally {
-            try {
-            		gzin.close();
-            		in.close();
-            } catch (IOException e) {
-                // Nothing
-            }
-}
-return false;
-}
+    	return KernelFeatureIndex.getInstance().hasFeature(feature);
+    }
 
 }
@@ -13,21 +13,26 @@
 package com.googlecode.android.wifi.tether.system;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.List;
 
 import com.googlecode.android.wifi.tether.data.ClientData;
+import com.googlecode.android.wifi.tether.data.MacAddress;
+import com.googlecode.android.wifi.tether.data.MacMap;
+import com.googlecode.android.wifi.tether.data.MacSet;
 
 import android.util.Log;
 
@@ -37,9 +42,27 @@ public class CoreTask {
 	
 	public static String DATA_FILE_PATH;
 	
-	private static final String FILESET_VERSION = "22";
+	// Pid-files written by tether.edify (relative to DATA_FILE_PATH)
+	public static final String DNSMASQ_PIDFILE = "/var/dnsmasq.pid";
+	public static final String HOSTAPD_PIDFILE = "/var/hostapd.pid";
 	
-	private Hashtable<String,String> runningProcesses = new Hashtable<String,String>();
+	private static final String FILESET_VERSION = "30";
+	
+	private ProcessTable processTable = new ProcessTable();
+	
+	// Timeout for commands started with exec()
+	public static final long EXEC_TIMEOUT = 30000;
+	// Timeout for bin/tether (start loads the wifi-driver and firmware)
+	public static final long TETHER_TIMEOUT = 60000;
+	private static final int EXEC_OUTPUT_SIZE = 8192;
+	// Cleared once calling NativeTask.exec() failed (older libwtnativetask.so)
+	private static volatile boolean nativeExecAvailable = true;
+	
+	// Long-lived shells; spawning su for every command is slow and may prompt
+	private static ShellSession rootShell = new ShellSession("su");
+	private static ShellSession standardShell = new ShellSession("sh");
+	
+	private NetDevReader netDevReader = new NetDevReader();
 	
 	public void setPath(String path){
 		CoreTask.DATA_FILE_PATH = path;
@@ -94,8 +117,314 @@ public class CoreTask {
 	    public ArrayList<String> get() {
 	    	return readLinesFromFile(DATA_FILE_PATH+"/conf/whitelist_mac.conf");
 	    }
+	    public MacSet getMacSet() {
+	    	return new MacSet(this.get());
+	    }
 	}
 	
+	/*
+	 * Maintains per-client accounting-rules in the wireless-tether chain.
+	 * The rules have no target, they only count and fall through.
+	 */
+	public class ClientAccounting {
+		private static final String CHAIN = "wireless-tether";
+
+		// mac ==> ip of clients with accounting-rules
+		private Hashtable<String,String> clients = new Hashtable<String,String>();
+		// Rules ("-s ip"/"-d ip") which could not be deleted; retried once with the next add/remove
+		private ArrayList<String> staleRules = new ArrayList<String>();
+
+		public synchronized boolean add(String mac, String ip) {
+			if (ip == null || ip.equals(this.clients.get(mac))) {
+				return true;
+			}
+			this.remove(mac);
+			ArrayList<String> rules = new ArrayList<String>();
+			rules.add("-s "+ip);
+			rules.add("-d "+ip);
+			boolean[] inserted = this.run("-I", rules);
+			if (inserted[0] && inserted[1]) {
+				this.clients.put(mac, ip);
+				return true;
+			}
+			// A client is accounted in both directions or not at all
+			ArrayList<String> partial = new ArrayList<String>();
+			for (int i = 0; i < rules.size(); i++) {
+				if (inserted[i]) {
+					partial.add(rules.get(i));
+				}
+			}
+			this.delete(partial);
+			return false;
+		}
+
+		public synchronized boolean remove(String mac) {
+			String ip = this.clients.remove(mac);
+			ArrayList<String> rules = new ArrayList<String>();
+			if (ip != null) {
+				rules.add("-s "+ip);
+				rules.add("-d "+ip);
+			}
+			return this.delete(rules);
+		}
+
+		/*
+		 * Inserts the rules of all known clients again after the chain has been
+		 * flushed ("tether restartnat"); the counters start over at 0.
+		 */
+		public synchronized boolean restore() {
+			Hashtable<String,String> known = this.clients;
+			this.clients = new Hashtable<String,String>();
+			// Rules of the flushed chain can not be deleted anymore
+			this.staleRules.clear();
+			boolean success = true;
+			for (String mac : known.keySet()) {
+				success &= this.add(mac, known.get(mac));
+			}
+			return success;
+		}
+
+		/*
+		 * Deletes 'rules' (and retries the stale ones); returns false if one of
+		 * 'rules' could not be deleted.
+		 */
+		private boolean delete(ArrayList<String> rules) {
+			ArrayList<String> retried = this.staleRules;
+			this.staleRules = new ArrayList<String>();
+			ArrayList<String> all = new ArrayList<String>(retried);
+			all.addAll(rules);
+			if (all.isEmpty()) {
+				return true;
+			}
+			boolean[] deleted = this.run("-D", all);
+			for (int i = 0; i < all.size(); i++) {
+				if (deleted[i]) {
+					continue;
+				}
+				if (i < retried.size()) {
+					// Failed twice - most likely the rule is gone already
+					Log.d(TAG, "Giving up deleting accounting-rule \""+all.get(i)+"\".");
+				}
+				else {
+					this.staleRules.add(all.get(i));
+				}
+			}
+			return this.staleRules.isEmpty();
+		}
+
+		/*
+		 * Runs "iptables <action> wireless-tether <rule>" for all rules in one batch.
+		 */
+		private boolean[] run(String action, ArrayList<String> rules) {
+			ArrayList<String> commands = new ArrayList<String>();
+			for (String rule : rules) {
+				commands.add(DATA_FILE_PATH+"/bin/iptables "+action+" "+CHAIN+" "+rule);
+			}
+			ArrayList<ShellSession.Result> results = runRootBatch(commands);
+			boolean[] success = new boolean[rules.size()];
+			for (int i = 0; i < success.length; i++) {
+				success[i] = results.get(i).isSuccess();
+			}
+			return success;
+		}
+
+		/*
+		 * Reads the counters of all clients with one iptables-call.
+		 * Returns mac ==> {BYTES_UP, BYTES_DOWN} or null on error.
+		 */
+		public Hashtable<String,long[]> read() {
+			Hashtable<String,String> current;
+			synchronized (this) {
+				if (this.clients.isEmpty()) {
+					return new Hashtable<String,long[]>();
+				}
+				current = new Hashtable<String,String>(this.clients);
+			}
+			ShellSession.Result result = rootShell.run(DATA_FILE_PATH+"/bin/iptables -L "+CHAIN+" -v -x -n");
+			if (result.isSuccess() == false) {
+				Log.d(TAG, "Unable to read accounting-counters - Here is what I know: "+result.getError());
+				return null;
+			}
+			Hashtable<String,long[]> byIp = null;
+			try {
+				byIp = IptablesCounterParser.parse(new ByteArrayInputStream(result.getOutput().getBytes()));
+			} catch (IOException e) {
+				Log.d(TAG, "Unable to parse accounting-counters - Here is what I know: "+e.getMessage());
+				return null;
+			}
+			Hashtable<String,long[]> byMac = new Hashtable<String,long[]>();
+			for (String mac : current.keySet()) {
+				long[] counters = byIp.get(current.get(mac));
+				if (counters != null) {
+					byMac.put(mac, counters);
+				}
+			}
+			return byMac;
+		}
+	}
+
+	/*
+	 * Generates the rulesets for one "iptables-restore --noflush" per action
+	 * (start, stop, restartsecwifi) and applies them. With "iptables.restore"
+	 * set in tether.conf the start- and stop-actions of tether.edify leave the
+	 * rules to the app (see TetherService).
+	 */
+	public class IptablesRuleset {
+		public static final String START   = "/conf/iptables.start";
+		public static final String STOP    = "/conf/iptables.stop";
+		public static final String SECWIFI = "/conf/iptables.secwifi";
+
+		/*
+		 * 'whitelist' is null if access control is disabled; if 'ipsetName' is
+		 * given the whitelist is matched with that set instead of one rule per MAC.
+		 */
+		public boolean write(String ipNetwork, boolean mssClamping, ArrayList<String> whitelist, String ipsetName) {
+			if (ipNetwork == null || ipNetwork.length() == 0) {
+				this.remove();
+				return false;
+			}
+			String network = ipNetwork+"/24";
+
+			// nat-rules are shared by start and restartsecwifi
+			StringBuilder nat = new StringBuilder();
+			if (whitelist != null) {
+				if (ipsetName != null) {
+					nat.append("-A PREROUTING -m set --match-set ").append(ipsetName).append(" src -j ACCEPT\n");
+				}
+				else {
+					for (String mac : whitelist) {
+						// Skipping everything which could break the ruleset
+						if (MacAddress.parse(mac.trim()) != MacAddress.INVALID) {
+							nat.append("-A PREROUTING -m mac --mac-source ").append(mac.trim()).append(" -j ACCEPT\n");
+						}
+					}
+				}
+				nat.append("-A PREROUTING -s ").append(network).append(" -j DROP\n");
+			}
+			nat.append("-A POSTROUTING -s ").append(network).append(" -j MASQUERADE\n");
+
+			// Declaring a chain creates it - or flushes it if it exists
+			StringBuilder start = new StringBuilder();
+			start.append("*filter\n");
+			start.append(":wireless-tether - [0:0]\n");
+			start.append("-F FORWARD\n");
+			if (mssClamping) {
+				start.append("-A FORWARD -s ").append(network).append(" -p tcp --tcp-flags SYN,RST SYN -j TCPMSS --clamp-mss-to-pmtu\n");
+			}
+			start.append("-A FORWARD -m state --state INVALID -j DROP\n");
+			start.append("-A FORWARD -j wireless-tether\n");
+			start.append("-A wireless-tether -m state --state ESTABLISHED,RELATED -j ACCEPT\n");
+			start.append("-A wireless-tether -s ").append(network).append(" -j ACCEPT\n");
+			start.append("-A wireless-tether -p 47 -j ACCEPT\n");
+			start.append("-A wireless-tether -j DROP\n");
+			start.append("COMMIT\n");
+			start.append("*nat\n");
+			start.append("-F\n");
+			start.append(nat);
+			start.append("COMMIT\n");
+
+			String stop = "*filter\n" +
+					":wireless-tether - [0:0]\n" +
+					"-F FORWARD\n" +
+					"-X wireless-tether\n" +
+					"COMMIT\n" +
+					"*nat\n" +
+					"-F\n" +
+					"COMMIT\n";
+
+			String secwifi = "*nat\n" +
+					"-F PREROUTING\n" +
+					"-F POSTROUTING\n" +
+					nat +
+					"COMMIT\n";
+
+			if (writeLinesToFile(DATA_FILE_PATH+START, start.toString()) &&
+					writeLinesToFile(DATA_FILE_PATH+STOP, stop) &&
+					writeLinesToFile(DATA_FILE_PATH+SECWIFI, secwifi)) {
+				return true;
+			}
+			// apply() fails without the files; tether.edify's single iptables-calls are used then
+			this.remove();
+			return false;
+		}
+
+		/*
+		 * Applies 'ruleset' (START, STOP or SECWIFI) with one iptables-restore;
+		 * returns false if iptables-restore is missing or rejected it.
+		 */
+		public boolean apply(String ruleset) {
+			String binary = getIptablesRestoreBinary();
+			if (binary == null || new File(DATA_FILE_PATH+ruleset).exists() == false) {
+				return false;
+			}
+			return runRootCommand(binary+" --noflush < "+DATA_FILE_PATH+ruleset);
+		}
+
+		public void remove() {
+			new File(DATA_FILE_PATH+START).delete();
+			new File(DATA_FILE_PATH+STOP).delete();
+			new File(DATA_FILE_PATH+SECWIFI).delete();
+		}
+	}
+
+	/*
+	 * Keeps the whitelist in a kernel hash-set (ipset hash:mac), so access
+	 * control needs one "-m set"-rule and a constant-time lookup per packet.
+	 */
+	public class WhitelistIpset {
+		public static final String SET_NAME = "wifi-tether-wl";
+		private static final String TMP_SET_NAME = SET_NAME+"-new";
+
+		private boolean loaded = false;
+
+		/*
+		 * Returns true if the set was filled by the last load().
+		 */
+		public synchronized boolean isLoaded() {
+			return this.loaded;
+		}
+
+		/*
+		 * Replaces the content of the set atomically: a new set is filled
+		 * and swapped in with one "ipset restore".
+		 */
+		public synchronized boolean load(ArrayList<String> macs) {
+			this.loaded = false;
+			String binary = getIpsetBinary();
+			if (binary == null) {
+				return false;
+			}
+			StringBuilder script = new StringBuilder();
+			script.append("create ").append(SET_NAME).append(" hash:mac\n");
+			script.append("create ").append(TMP_SET_NAME).append(" hash:mac\n");
+			script.append("flush ").append(TMP_SET_NAME).append("\n");
+			for (String mac : macs) {
+				if (MacAddress.parse(mac.trim()) != MacAddress.INVALID) {
+					script.append("add ").append(TMP_SET_NAME).append(" ").append(mac.trim()).append("\n");
+				}
+			}
+			script.append("swap ").append(TMP_SET_NAME).append(" ").append(SET_NAME).append("\n");
+			script.append("destroy ").append(TMP_SET_NAME).append("\n");
+			String filename = DATA_FILE_PATH+"/var/ipset.whitelist";
+			if (writeLinesToFile(filename, script.toString()) == false) {
+				return false;
+			}
+			this.loaded = runRootCommand(binary+" -exist restore < "+filename);
+			return this.loaded;
+		}
+
+		/*
+		 * Removes the set; fails (harmlessly) while a rule still references it.
+		 */
+		public synchronized void destroy() {
+			String binary = getIpsetBinary();
+			if (this.loaded && binary != null) {
+				runRootCommand(binary+" destroy "+SET_NAME);
+			}
+			this.loaded = false;
+		}
+	}
+
 	/*
 	 * A class to handle the wpa supplicant config file.
 	 */
@@ -263,6 +592,75 @@ public class CoreTask {
 			return writeLinesToFile(DATA_FILE_PATH + "/conf/hostapd.conf", lines);
 		}
 	}
+
+	/*
+	 * SHA1 and size of every installed asset (filename -> "sha1 size");
+	 * assets are only rewritten if their content differs.
+	 */
+	public class InstallManifest extends HashMap<String, String> {
+
+		private static final long serialVersionUID = 1L;
+
+		public static final String FILE = "/var/install.manifest";
+
+		// Written files waiting for their chmod
+		private HashMap<String, String> pending = new HashMap<String, String>();
+
+		public HashMap<String, String> read() {
+			this.clear();
+			this.pending.clear();
+			for (String line : readLinesFromFile(DATA_FILE_PATH + FILE)) {
+				int index = line.indexOf('=');
+				if (index > 0) {
+					this.put(line.substring(0, index), line.substring(index + 1));
+				}
+			}
+			return this;
+		}
+
+		/*
+		 * Returns true if 'filename' was installed with this content and was not
+		 * touched since (same size and mtime); files the app rewrites itself
+		 * (tether.conf) are reinstalled that way.
+		 */
+		public boolean isCurrent(String filename, String sha1, long size) {
+			String entry = this.get(filename);
+			File file = new File(filename);
+			return entry != null && entry.equals(sha1 + " " + size + " " + file.lastModified()) && file.length() == size;
+		}
+
+		/*
+		 * Remembers a freshly written file; it is recorded by confirm() once
+		 * its permissions are set.
+		 */
+		public void stage(String filename, String sha1, long size) {
+			this.remove(filename);
+			this.pending.put(filename, sha1 + " " + size);
+		}
+
+		public void confirm(String filename) {
+			String entry = this.pending.remove(filename);
+			if (entry != null) {
+				this.put(filename, entry + " " + new File(filename).lastModified());
+			}
+		}
+
+		public boolean write() {
+			StringBuilder lines = new StringBuilder();
+			for (String key : this.keySet()) {
+				lines.append(key).append('=').append(this.get(key)).append('\n');
+			}
+			File tmpFile = new File(DATA_FILE_PATH + FILE + ".tmp");
+			if (writeLinesToFile(tmpFile.getAbsolutePath(), lines.toString()) == false ||
+					tmpFile.length() != lines.length() ||
+					tmpFile.renameTo(new File(DATA_FILE_PATH + FILE)) == false) {
+				Log.d(TAG, "Unable to write "+DATA_FILE_PATH+FILE);
+				tmpFile.delete();
+				return false;
+			}
+			return true;
+		}
+	}
 	
 	
 	
@@ -297,8 +695,8 @@ public class CoreTask {
 //		}
 //	}
 	
-    public Hashtable<String,ClientData> getLeases() throws Exception {
-        Hashtable<String,ClientData> returnHash = new Hashtable<String,ClientData>();
+    public MacMap<ClientData> getLeases() throws Exception {
+        MacMap<ClientData> returnHash = new MacMap<ClientData>();
         
         ClientData clientData;
         
@@ -316,13 +714,13 @@ public class CoreTask {
 			clientData.setIpAddress(ipAddress);
 			clientData.setMacAddress(macAddress);
 			clientData.setConnected(true);
-			returnHash.put(macAddress, clientData);
+			returnHash.put(clientData.getMac(), clientData);
 		}
     	return returnHash;
     }
     
     public boolean chmod(String file, String mode) {
-    	if (NativeTask.runCommand("chmod "+ mode + " " + file) == 0) {
+    	if (runStandardCommand(new String[] { "chmod", mode, file }, EXEC_TIMEOUT)) {
     		return true;
     	}
     	return false;
@@ -429,6 +827,38 @@ public class CoreTask {
     }
 
     
+    /*
+     * This method checks if whitelists can be matched with an ipset (hash:mac)
+     */
+    public boolean isIpsetSupported() {
+    	if ((new File("/proc/config.gz")).exists() == false)
+    		return false;
+    	if (!Configuration.hasKernelFeature("CONFIG_IP_SET_HASH_MAC=") ||
+    		!Configuration.hasKernelFeature("CONFIG_NETFILTER_XT_SET="))
+    		return false;
+    	return this.getIpsetBinary() != null;
+    }
+    
+    public String getIpsetBinary() {
+    	String[] paths = { DATA_FILE_PATH+"/bin/ipset", "/system/bin/ipset", "/system/xbin/ipset" };
+    	for (String path : paths) {
+    		if ((new File(path)).exists()) {
+    			return path;
+    		}
+    	}
+    	return null;
+    }
+    
+    public String getIptablesRestoreBinary() {
+    	String[] paths = { DATA_FILE_PATH+"/bin/iptables-restore", "/system/bin/iptables-restore", "/system/xbin/iptables-restore" };
+    	for (String path : paths) {
+    		if ((new File(path)).exists()) {
+    			return path;
+    		}
+    	}
+    	return null;
+    }
+    
     public boolean isBusyboxInstalled() {
     	if ((new File("/system/bin/busybox")).exists() == false) {
 	    	if ((new File("/system/xbin/busybox")).exists() == false) {
@@ -470,44 +900,14 @@ public class CoreTask {
     
     
     public boolean isProcessRunning(String processName) throws Exception {
-   	
-    	boolean processIsRunning = false;
-    	Hashtable<String,String> tmpRunningProcesses = new Hashtable<String,String>();
-    	File procDir = new File("/proc");
-    	FilenameFilter filter = new FilenameFilter() {
-            public boolean accept(File dir, String name) {
-                try {
-                    Integer.parseInt(name);
-                } catch (NumberFormatException ex) {
-                    return false;
-                }
-                return true;
-            }
-        };
-    	File[] processes = procDir.listFiles(filter);
-    	for (File process : processes) {
-    		String cmdLine = "";
-    		// Checking if this is a already known process
-    		if (this.runningProcesses.containsKey(process.getAbsoluteFile().toString())) {
-    			cmdLine = this.runningProcesses.get(process.getAbsoluteFile().toString());
-    		}
-    		else {
-    			ArrayList<String> cmdlineContent = this.readLinesFromFile(process.getAbsoluteFile()+"/cmdline");
-    			if (cmdlineContent != null && cmdlineContent.size() > 0) {
-    				cmdLine = cmdlineContent.get(0);
-    			}
-    		}
-    		// Adding to tmp-Hashtable
-    		tmpRunningProcesses.put(process.getAbsoluteFile().toString(), cmdLine);
-    		
-    		// Checking if processName matches
-    		if (cmdLine.contains(processName)) {
-    			processIsRunning = true;
-    		}
-    	}
-    	// Overwriting runningProcesses
-    	this.runningProcesses = tmpRunningProcesses;
-    	return processIsRunning;
+    	return this.processTable.isRunning(processName);
+    }
+    
+    /*
+     * Checks the pid in 'pidFile' first (e.g. DNSMASQ_PIDFILE) before scanning /proc.
+     */
+    public boolean isProcessRunning(String processName, String pidFile) {
+    	return this.processTable.isRunning(processName, pidFile);
     }
 
     public boolean hasRootPermission() {
@@ -528,24 +928,147 @@ public class CoreTask {
     }
     
     public static boolean runRootCommand(String command) {
-		Log.d(TAG, "Root-Command ==> su -c \""+command+"\"");
-		int returncode = NativeTask.runCommand("su -c \""+command+"\"");
-    	if (returncode == 0) {
+		Log.d(TAG, "Root-Command ==> \""+command+"\"");
+		ShellSession.Result result = rootShell.run(command);
+    	if (result.isSuccess()) {
+			return true;
+		}
+    	Log.d(TAG, "Root-Command error, return code: " + result.getExitCode() + ", stderr: " + result.getError());
+		return false;
+    }
+
+    /*
+     * Runs 'argv' (quoted) with "su -c" via exec(), so that a timeout kills
+     * just this command; meant for the few long-running calls (bin/tether).
+     * Without native exec() it runs in the root-shell, which is killed on
+     * a timeout.
+     */
+    public static boolean runRootCommand(String[] argv, long timeout) {
+    	String command = quote(argv);
+		Log.d(TAG, "Root-Command ==> \""+command+"\"");
+		ShellSession.Result result = execNative(new String[] { "su", "-c", command }, timeout);
+		if (result == null) {
+			result = rootShell.run(command, timeout);
+		}
+    	if (result.isSuccess()) {
 			return true;
 		}
-    	Log.d(TAG, "Root-Command error, return code: " + returncode);
+    	Log.d(TAG, "Root-Command error, return code: " + result.getExitCode() + ", output: " + result.getOutput() + result.getError());
 		return false;
     }
 
+    /*
+     * Executes all commands in one go through the root-shell. A failing
+     * command does not stop the following ones; every command gets its
+     * own result (exit-code, stdout, stderr, duration).
+     */
+    public static ArrayList<ShellSession.Result> runRootBatch(List<String> commands) {
+    	return runBatch(rootShell, "Root-Batch", commands);
+    }
+
+    public static ArrayList<ShellSession.Result> runStandardBatch(List<String> commands) {
+    	return runBatch(standardShell, "Standard-Batch", commands);
+    }
+
+    private static ArrayList<ShellSession.Result> runBatch(ShellSession shell, String name, List<String> commands) {
+    	ShellSession.Result[] results = shell.run(commands.toArray(new String[commands.size()]));
+    	ArrayList<ShellSession.Result> resultList = new ArrayList<ShellSession.Result>(results.length);
+    	for (ShellSession.Result result : results) {
+    		if (result.isSuccess()) {
+    			Log.d(TAG, name+" ==> \""+result.getCommand()+"\" ("+result.getDuration()+"ms)");
+    		}
+    		else {
+    			Log.d(TAG, name+" error ==> \""+result.getCommand()+"\", return code: "+result.getExitCode()+", stderr: "+result.getError());
+    		}
+    		resultList.add(result);
+    	}
+    	return resultList;
+    }
+
     public static boolean runStandardCommand(String command) {
 		Log.d(TAG, "Standard-Command ==> \""+command+"\"");
-		int returncode = NativeTask.runCommand(command);
-    	if (returncode == 0) {
+		ShellSession.Result result = standardShell.run(command);
+    	if (result.isSuccess()) {
 			return true;
 		}
-    	Log.d(TAG, "Standard-Command error, return code: " + returncode);
+    	Log.d(TAG, "Standard-Command error, return code: " + result.getExitCode() + ", stderr: " + result.getError());
 		return false;
     }
+
+    public static boolean runStandardCommand(String[] argv, long timeout) {
+		ShellSession.Result result = exec(argv, timeout);
+    	if (result.isSuccess()) {
+			return true;
+		}
+    	Log.d(TAG, "Standard-Command error ==> \""+result.getCommand()+"\", return code: " + result.getExitCode() + ", output: " + result.getOutput() + result.getError());
+		return false;
+    }
+    
+    /*
+     * Starts argv[0] directly (no shell) and captures stdout+stderr as output.
+     * Exit-code is NativeTask.EXEC_TIMEOUT if the process had to be killed.
+     * Without native exec() 'argv' runs (quoted) in the standard-shell;
+     * ShellSession.EXIT_TIMEOUT equals NativeTask.EXEC_TIMEOUT.
+     */
+    public static ShellSession.Result exec(String[] argv, long timeout) {
+    	ShellSession.Result result = execNative(argv, timeout);
+    	if (result == null) {
+    		result = standardShell.run(quote(argv), timeout);
+    	}
+    	return result;
+    }
+
+    /*
+     * Returns null if libwtnativetask.so has no exec() (older library).
+     */
+    private static ShellSession.Result execNative(String[] argv, long timeout) {
+    	if (!nativeExecAvailable) {
+    		return null;
+    	}
+    	ByteBuffer out = ByteBuffer.allocateDirect(EXEC_OUTPUT_SIZE);
+    	long start = System.currentTimeMillis();
+    	int exitCode;
+    	try {
+    		exitCode = NativeTask.exec(argv, timeout, out);
+    	} catch (UnsatisfiedLinkError e) {
+    		nativeExecAvailable = false;
+    		Log.d(TAG, "Native exec() not available - Here is what I know: "+e.getMessage());
+    		return null;
+    	}
+    	byte[] output = new byte[out.position()];
+    	out.flip();
+    	out.get(output);
+    	StringBuilder command = new StringBuilder();
+    	for (String arg : argv) {
+    		command.append(command.length() > 0 ? " " : "").append(arg);
+    	}
+    	if (exitCode == NativeTask.EXEC_TIMEOUT) {
+    		Log.d(TAG, "Command timed out after "+timeout+"ms: "+command);
+    	}
+    	return new ShellSession.Result(command.toString(), exitCode, new String(output), "", System.currentTimeMillis() - start);
+    }
+
+    /*
+     * Joins 'argv' to a shell-command; every argument is single-quoted.
+     */
+    private static String quote(String[] argv) {
+    	StringBuilder command = new StringBuilder();
+    	for (String arg : argv) {
+    		if (command.length() > 0) {
+    			command.append(' ');
+    		}
+    		command.append('\'').append(arg.replace("'", "'\\''")).append('\'');
+    	}
+    	return command.toString();
+    }
+
+    /*
+     * Terminates the shared shells; they are restarted on demand.
+     */
+    public static void closeShells() {
+    	rootShell.close();
+    	standardShell.close();
+    }
     
     public String getProp(String property) {
     	return NativeTask.getProp(property);
@@ -553,21 +1076,37 @@ public class CoreTask {
     
     public long[] getDataTraffic(String device) {
     	// Returns traffic usage for all interfaces starting with 'device'.
-    	long [] dataCount = new long[] {0, 0};
-    	if (device == null || device.equals(""))
-    		return dataCount;
-    	for (String line : readLinesFromFile("/proc/net/dev")) {
-    		if (line == null || line.startsWith(device) == false)
+    	long[] counters = new long[NetDevReader.COLUMNS];
+    	this.getDataTraffic(device, counters);
+    	return new long[] {counters[NetDevReader.RX_BYTES], counters[NetDevReader.TX_BYTES]};
+    }
+    
+    /**
+     * Fills 'counters' (NetDevReader.COLUMNS elements) with all /proc/net/dev-counters 
+     * for interfaces starting with 'device'. Does not allocate once warmed up.
+     */
+    public boolean getDataTraffic(String device, long[] counters) {
+    	return this.netDevReader.read(device, counters) > 0;
+    }
+    
+    /**
+     * Returns the interface holding the default-route (destination 00000000 in
+     * /proc/net/route), ignoring 'excludeDevice'. Returns null if there is none.
+     */
+    public String getDefaultRouteInterface(String excludeDevice) {
+    	for (String line : readLinesFromFile("/proc/net/route")) {
+    		String[] fields = line.split("\\s+");
+    		if (fields.length < 2 || fields[1].equals("00000000") == false) {
+    			continue;
+    		}
+    		if (excludeDevice != null && fields[0].startsWith(excludeDevice)) {
     			continue;
-    		line = line.replace(':', ' ');
-    		String[] values = line.split(" +");
-    		dataCount[0] += Long.parseLong(values[1]);
-    		dataCount[1] += Long.parseLong(values[9]);
+    		}
+    		return fields[0];
     	}
-    	//Log.d(MSG_TAG, "Data rx: " + dataCount[0] + ", tx: " + dataCount[1]);
-    	return dataCount;
+    	return null;
     }
-    
+
     public boolean networkInterfaceExists(String device) {
     	if (device == null || device.equals(""))
     		return false;
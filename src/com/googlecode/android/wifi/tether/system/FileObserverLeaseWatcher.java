@@ -0,0 +1,67 @@
+/**
+ *  This program is free software; you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 3 of the License, or (at your option) any later
+ *  version.
+ *  You should have received a copy of the GNU General Public License along with
+ *  this program; if not, see <http://www.gnu.org/licenses/>.
+ *  Use this application at your own risk.
+ *
+ *  Copyright (c) 2009 by Harald Mueller and Sofia Lemons.
+ */
+
+package com.googlecode.android.wifi.tether.system;
+
+import android.os.FileObserver;
+
+/**
+ * inotify-based watcher. The directories are observed (not the files) so
+ * that files which are replaced or created later are still seen.
+ */
+public class FileObserverLeaseWatcher extends LeaseWatcher {
+
+	private static final int MASK = FileObserver.CLOSE_WRITE | FileObserver.MODIFY
+			| FileObserver.MOVED_TO | FileObserver.CREATE | FileObserver.DELETE;
+
+	// References have to be kept - observers stop once garbage-collected
+	private final FileObserver varObserver;
+	private final FileObserver confObserver;
+
+	public FileObserverLeaseWatcher(String dataPath) {
+		super(dataPath);
+		this.varObserver = new DirectoryObserver(dataPath+"/var", LEASE_FILE, CHANGED_LEASES);
+		this.confObserver = new DirectoryObserver(dataPath+"/conf", WHITELIST_FILE, CHANGED_WHITELIST);
+	}
+
+	@Override
+	public void start() {
+		this.varObserver.startWatching();
+		this.confObserver.startWatching();
+		// Files have to be read once initially
+		this.changed(CHANGED_LEASES | CHANGED_WHITELIST);
+	}
+
+	@Override
+	public void stop() {
+		this.varObserver.stopWatching();
+		this.confObserver.stopWatching();
+	}
+
+	private class DirectoryObserver extends FileObserver {
+		private final String filename;
+		private final int what;
+
+		DirectoryObserver(String directory, String filename, int what) {
+			super(directory, MASK);
+			this.filename = filename;
+			this.what = what;
+		}
+
+		@Override
+		public void onEvent(int event, String path) {
+			if (this.filename.equals(path)) {
+				FileObserverLeaseWatcher.this.changed(this.what);
+			}
+		}
+	}
+}
@@ -0,0 +1,158 @@
+/**
+ *  This program is free software; you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 3 of the License, or (at your option) any later
+ *  version.
+ *  You should have received a copy of the GNU General Public License along with
+ *  this program; if not, see <http://www.gnu.org/licenses/>.
+ *  Use this application at your own risk.
+ *
+ *  Copyright (c) 2009 by Harald Mueller and Sofia Lemons.
+ */
+
+package com.googlecode.android.wifi.tether.system;
+
+import java.util.ArrayList;
+
+import com.googlecode.android.wifi.tether.data.InterfaceStats;
+
+import android.util.Log;
+
+/**
+ * Reads /proc/net/dev once per tick for the tether- and the uplink-interface
+ * and hands the resulting InterfaceStats-snapshot to all listeners.
+ *
+ * The sampling-thread runs as long as at least one listener is registered.
+ */
+public class InterfaceStatsSampler implements Runnable {
+
+	public static final String TAG = "TETHER -> InterfaceStatsSampler";
+
+	public static final int INTERVAL = 1;  // Sample rate in seconds.
+
+	// Number of ticks after which the default-route is looked up again.
+	private static final int UPLINK_REFRESH_TICKS = 30;
+
+	public interface Listener {
+		/**
+		 * Called on the sampler-thread once per tick.
+		 */
+		void onSample(InterfaceStats stats);
+	}
+
+	private final CoreTask coretask;
+	private final String tetherDevice;
+	private final NetDevReader reader = new NetDevReader();
+
+	private final ArrayList<Listener> listeners = new ArrayList<Listener>();
+	private Thread thread = null;
+	private volatile InterfaceStats latest = null;
+
+	// Only touched by the sampler-thread
+	private final long[] tetherCount = new long[NetDevReader.COLUMNS];
+	private final long[] uplinkCount = new long[NetDevReader.COLUMNS];
+	private final long[] tetherStart = new long[NetDevReader.COLUMNS];
+	private final long[] uplinkStart = new long[NetDevReader.COLUMNS];
+	private String uplinkDevice = null;
+
+	public InterfaceStatsSampler(CoreTask coretask, String tetherDevice) {
+		this.coretask = coretask;
+		this.tetherDevice = tetherDevice;
+	}
+
+	public String getTetherDevice() {
+		return this.tetherDevice;
+	}
+
+	/**
+	 * @return Most recent snapshot; null if no sample has been taken yet.
+	 */
+	public InterfaceStats getLatest() {
+		return this.latest;
+	}
+
+	public synchronized void addListener(Listener listener) {
+		if (this.listeners.contains(listener) == false) {
+			this.listeners.add(listener);
+		}
+		if (this.thread == null || this.thread.isAlive() == false) {
+			this.thread = new Thread(this);
+			this.thread.start();
+		}
+	}
+
+	/**
+	 * @return true if listeners are left
+	 */
+	public synchronized boolean removeListener(Listener listener) {
+		this.listeners.remove(listener);
+		if (this.listeners.isEmpty() && this.thread != null) {
+			this.thread.interrupt();
+			this.thread = null;
+		}
+		return this.listeners.isEmpty() == false;
+	}
+
+	public void run() {
+		this.uplinkDevice = this.coretask.getDefaultRouteInterface(this.tetherDevice);
+		this.reader.read(this.tetherDevice, this.tetherStart, this.uplinkDevice, this.uplinkStart);
+		int ticks = 0;
+		Listener[] current = new Listener[0];
+
+		while (!Thread.currentThread().isInterrupted()) {
+			try {
+				Thread.sleep(INTERVAL * 1000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+
+			if (++ticks % UPLINK_REFRESH_TICKS == 0) {
+				String uplink = this.coretask.getDefaultRouteInterface(this.tetherDevice);
+				if (uplink != null && uplink.equals(this.uplinkDevice) == false) {
+					Log.d(TAG, "Uplink changed from "+this.uplinkDevice+" to "+uplink);
+					// New interface, new baseline
+					this.uplinkDevice = uplink;
+					this.reader.read(this.tetherDevice, this.tetherCount, this.uplinkDevice, this.uplinkStart);
+				}
+			}
+
+			this.reader.read(this.tetherDevice, this.tetherCount, this.uplinkDevice, this.uplinkCount);
+			InterfaceStats stats = new InterfaceStats(System.currentTimeMillis(),
+					this.tetherDevice, delta(this.tetherCount, this.tetherStart),
+					this.uplinkDevice, delta(this.uplinkCount, this.uplinkStart));
+			this.latest = stats;
+
+			synchronized (this) {
+				current = this.listeners.toArray(current);
+			}
+			for (Listener listener : current) {
+				if (listener == null) {
+					break;
+				}
+				try {
+					listener.onSample(stats);
+				} catch (Exception e) {
+					Log.d(TAG, "Listener failed - Here is what I know: "+e.getMessage());
+				}
+			}
+		}
+		this.reader.close();
+	}
+
+	/**
+	 * Picks the counters handed to InterfaceStats, relative to 'start'.
+	 */
+	private static long[] delta(long[] count, long[] start) {
+		return new long[] {
+			count[NetDevReader.RX_BYTES] - start[NetDevReader.RX_BYTES],
+			count[NetDevReader.TX_BYTES] - start[NetDevReader.TX_BYTES],
+			count[NetDevReader.RX_PACKETS] - start[NetDevReader.RX_PACKETS],
+			count[NetDevReader.TX_PACKETS] - start[NetDevReader.TX_PACKETS],
+			count[NetDevReader.RX_ERRS] - start[NetDevReader.RX_ERRS],
+			count[NetDevReader.TX_ERRS] - start[NetDevReader.TX_ERRS],
+			count[NetDevReader.RX_DROP] - start[NetDevReader.RX_DROP],
+			count[NetDevReader.TX_DROP] - start[NetDevReader.TX_DROP]
+		};
+	}
+}
@@ -0,0 +1,85 @@
+/**
+ *  This program is free software; you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 3 of the License, or (at your option) any later
+ *  version.
+ *  You should have received a copy of the GNU General Public License along with
+ *  this program; if not, see <http://www.gnu.org/licenses/>.
+ *  Use this application at your own risk.
+ *
+ *  Copyright (c) 2009 by Harald Mueller and Sofia Lemons.
+ */
+
+package com.googlecode.android.wifi.tether.system;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Hashtable;
+import java.util.StringTokenizer;
+
+/**
+ * Parses the output of "iptables -L <chain> -v -x -n" line by line and
+ * collects the byte-counters of the per-client accounting-rules.
+ *
+ * Accounting-rules have no target, so they show up as exactly 8 columns:
+ *   pkts bytes prot opt in out source destination
+ * A rule matching "-s <ip>" counts upload, "-d <ip>" counts download.
+ */
+public class IptablesCounterParser {
+
+	public static final int BYTES_UP   = 0;
+	public static final int BYTES_DOWN = 1;
+
+	private static final String ANYWHERE = "0.0.0.0/0";
+
+	/**
+	 * @return ip-address ==> {BYTES_UP, BYTES_DOWN}
+	 */
+	public static Hashtable<String,long[]> parse(InputStream in) throws IOException {
+		Hashtable<String,long[]> counters = new Hashtable<String,long[]>();
+		BufferedReader br = new BufferedReader(new InputStreamReader(in), 8192);
+		String line;
+		String[] columns = new String[8];
+		while ((line = br.readLine()) != null) {
+			StringTokenizer tokenizer = new StringTokenizer(line);
+			int count = 0;
+			while (tokenizer.hasMoreTokens()) {
+				String token = tokenizer.nextToken();
+				if (count < columns.length) {
+					columns[count] = token;
+				}
+				count++;
+			}
+			if (count != columns.length || Character.isDigit(columns[0].charAt(0)) == false) {
+				// Header or rule with target/options
+				continue;
+			}
+			long bytes;
+			try {
+				bytes = Long.parseLong(columns[1]);
+			} catch (NumberFormatException e) {
+				continue;
+			}
+			String source = columns[6];
+			String destination = columns[7];
+			if (ANYWHERE.equals(destination) && ANYWHERE.equals(source) == false) {
+				entry(counters, source)[BYTES_UP] += bytes;
+			}
+			else if (ANYWHERE.equals(source) && ANYWHERE.equals(destination) == false) {
+				entry(counters, destination)[BYTES_DOWN] += bytes;
+			}
+		}
+		return counters;
+	}
+
+	private static long[] entry(Hashtable<String,long[]> counters, String ip) {
+		long[] value = counters.get(ip);
+		if (value == null) {
+			value = new long[2];
+			counters.put(ip, value);
+		}
+		return value;
+	}
+}
@@ -0,0 +1,207 @@
+/**
+ *  This program is free software; you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 3 of the License, or (at your option) any later
+ *  version.
+ *  You should have received a copy of the GNU General Public License along with
+ *  this program; if not, see <http://www.gnu.org/licenses/>.
+ *  Use this application at your own risk.
+ *
+ *  Copyright (c) 2009 by Harald Mueller and Sofia Lemons.
+ */
+
+package com.googlecode.android.wifi.tether.system;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import android.util.Log;
+
+/**
+ * Sorted index of the enabled options ("CONFIG_XYZ=value"-lines) of the
+ * running kernel.
+ *
+ * /proc/config.gz is decompressed only once per kernel; the index is stored
+ * in var/kernel.features together with the content of /proc/version and
+ * loaded from there as long as the kernel did not change.
+ */
+public class KernelFeatureIndex {
+
+	public static final String TAG = "TETHER -> KernelFeatureIndex";
+
+	public static final String PROC_CONFIG = "/proc/config.gz";
+	public static final String PROC_VERSION = "/proc/version";
+	public static final String INDEX_FILE = "/var/kernel.features";
+
+	private static KernelFeatureIndex instance = null;
+
+	// null if the kernel does not expose its config
+	private final String[] features;
+
+	private KernelFeatureIndex(String[] features) {
+		this.features = features;
+	}
+
+	/**
+	 * Returns the index of the running kernel; builds it on first use.
+	 */
+	public static synchronized KernelFeatureIndex getInstance() {
+		if (instance == null) {
+			instance = load();
+		}
+		return instance;
+	}
+
+	/**
+	 * @param feature - Option including its separator (e.g. "CONFIG_NETFILTER=") or a prefix of it.
+	 * @return true if an enabled option starts with 'feature'; also true if /proc/config.gz is missing.
+	 */
+	public boolean hasFeature(String feature) {
+		if (this.features == null) {
+			return true;
+		}
+		// All entries with this prefix are sorted right behind it
+		int index = Arrays.binarySearch(this.features, feature);
+		if (index < 0) {
+			index = -index - 1;
+		}
+		return index < this.features.length && this.features[index].startsWith(feature);
+	}
+
+	private static KernelFeatureIndex load() {
+		if (new File(PROC_CONFIG).exists() == false) {
+			return new KernelFeatureIndex(null);
+		}
+		String version = readVersion();
+		String indexFile = CoreTask.DATA_FILE_PATH != null ? CoreTask.DATA_FILE_PATH+INDEX_FILE : null;
+		String[] features = null;
+		if (version != null && indexFile != null) {
+			features = readIndex(indexFile, version);
+		}
+		if (features == null) {
+			features = readConfig();
+			if (features == null) {
+				return new KernelFeatureIndex(new String[0]);
+			}
+			if (version != null && indexFile != null) {
+				writeIndex(indexFile, version, features);
+			}
+		}
+		Log.d(TAG, "Kernel-config contains "+features.length+" enabled options.");
+		return new KernelFeatureIndex(features);
+	}
+
+	/**
+	 * Decompresses /proc/config.gz and collects the enabled options (sorted).
+	 */
+	private static String[] readConfig() {
+		ArrayList<String> lines = new ArrayList<String>();
+		BufferedReader in = null;
+		try {
+			in = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(PROC_CONFIG))), 8192);
+			String line;
+			while ((line = in.readLine()) != null) {
+				// Disabled options are comments ("# CONFIG_XYZ is not set")
+				if (line.startsWith("CONFIG_")) {
+					lines.add(line);
+				}
+			}
+		} catch (IOException e) {
+			Log.d(TAG, "Unable to read "+PROC_CONFIG+" - Here is what I know: "+e.getMessage());
+			return null;
+		} finally {
+			close(in);
+		}
+		String[] features = lines.toArray(new String[lines.size()]);
+		Arrays.sort(features);
+		return features;
+	}
+
+	/**
+	 * @return Stored options; null if the file is missing or belongs to another kernel.
+	 */
+	private static String[] readIndex(String filename, String version) {
+		if (new File(filename).exists() == false) {
+			return null;
+		}
+		ArrayList<String> lines = new ArrayList<String>();
+		BufferedReader in = null;
+		try {
+			in = new BufferedReader(new InputStreamReader(new FileInputStream(filename)), 8192);
+			if (version.equals(in.readLine()) == false) {
+				Log.d(TAG, "Kernel changed - rebuilding "+filename);
+				return null;
+			}
+			String line;
+			while ((line = in.readLine()) != null) {
+				lines.add(line);
+			}
+		} catch (IOException e) {
+			Log.d(TAG, "Unable to read "+filename+" - Here is what I know: "+e.getMessage());
+			return null;
+		} finally {
+			close(in);
+		}
+		// Written sorted - no need to sort again
+		return lines.toArray(new String[lines.size()]);
+	}
+
+	/**
+	 * Writes to a temporary file first; a partial index is never picked up.
+	 */
+	private static void writeIndex(String filename, String version, String[] features) {
+		File tmpFile = new File(filename+".tmp");
+		Writer out = null;
+		try {
+			out = new OutputStreamWriter(new FileOutputStream(tmpFile));
+			out.write(version);
+			out.write('\n');
+			for (String feature : features) {
+				out.write(feature);
+				out.write('\n');
+			}
+			out.close();
+			out = null;
+			if (tmpFile.renameTo(new File(filename)) == false) {
+				Log.d(TAG, "Unable to rename "+tmpFile.getAbsolutePath());
+				tmpFile.delete();
+			}
+		} catch (IOException e) {
+			Log.d(TAG, "Unable to write "+filename+" - Here is what I know: "+e.getMessage());
+			close(out);
+			tmpFile.delete();
+		}
+	}
+
+	private static String readVersion() {
+		BufferedReader in = null;
+		try {
+			in = new BufferedReader(new InputStreamReader(new FileInputStream(PROC_VERSION)));
+			return in.readLine();
+		} catch (IOException e) {
+			return null;
+		} finally {
+			close(in);
+		}
+	}
+
+	private static void close(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException e) {
+				// nothing
+			}
+		}
+	}
+}
@@ -0,0 +1,62 @@
+/**
+ *  This program is free software; you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 3 of the License, or (at your option) any later
+ *  version.
+ *  You should have received a copy of the GNU General Public License along with
+ *  this program; if not, see <http://www.gnu.org/licenses/>.
+ *  Use this application at your own risk.
+ *
+ *  Copyright (c) 2009 by Harald Mueller and Sofia Lemons.
+ */
+
+package com.googlecode.android.wifi.tether.system;
+
+import java.util.ArrayList;
+
+import com.googlecode.android.wifi.tether.data.ClientData;
+import com.googlecode.android.wifi.tether.data.LeaseEvent;
+import com.googlecode.android.wifi.tether.data.MacMap;
+
+/**
+ * Compares successive results of CoreTask.getLeases() (keyed by MAC) and
+ * turns them into LeaseEvents. Each update is linear in the number of leases.
+ */
+public class LeaseDiff {
+
+	private MacMap<ClientData> previous = new MacMap<ClientData>();
+
+	/**
+	 * @param current - Leases as returned by CoreTask.getLeases(); kept as reference for the next call.
+	 * @return Events in the order: left, joined and renewed as found.
+	 */
+	public synchronized ArrayList<LeaseEvent> update(MacMap<ClientData> current) {
+		ArrayList<LeaseEvent> events = new ArrayList<LeaseEvent>();
+		for (ClientData before : this.previous.values()) {
+			if (current.containsKey(before.getMac()) == false) {
+				events.add(new LeaseEvent(LeaseEvent.CLIENT_LEFT, null, before));
+			}
+		}
+		for (ClientData after : current.values()) {
+			ClientData before = this.previous.get(after.getMac());
+			if (before == null) {
+				events.add(new LeaseEvent(LeaseEvent.CLIENT_JOINED, after, null));
+			}
+			else if (renewed(before, after)) {
+				events.add(new LeaseEvent(LeaseEvent.CLIENT_RENEWED, after, before));
+			}
+		}
+		this.previous = current;
+		return events;
+	}
+
+	private static boolean renewed(ClientData before, ClientData after) {
+		return equal(before.getConnectTime(), after.getConnectTime()) == false
+				|| equal(before.getIpAddress(), after.getIpAddress()) == false
+				|| equal(before.getClientName(), after.getClientName()) == false;
+	}
+
+	private static boolean equal(Object a, Object b) {
+		return a == null ? b == null : a.equals(b);
+	}
+}
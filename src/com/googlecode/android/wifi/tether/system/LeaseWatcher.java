@@ -0,0 +1,119 @@
+/**
+ *  This program is free software; you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 3 of the License, or (at your option) any later
+ *  version.
+ *  You should have received a copy of the GNU General Public License along with
+ *  this program; if not, see <http://www.gnu.org/licenses/>.
+ *  Use this application at your own risk.
+ *
+ *  Copyright (c) 2009 by Harald Mueller and Sofia Lemons.
+ */
+
+package com.googlecode.android.wifi.tether.system;
+
+import java.io.File;
+
+import android.util.Log;
+
+/**
+ * Reports changes of var/dnsmasq.leases and conf/whitelist_mac.conf.
+ *
+ * Implementations push raw file-events via changed(); a consumer-thread
+ * blocks in await() and gets the coalesced changes once no further event
+ * arrived for DEBOUNCE milliseconds.
+ */
+public abstract class LeaseWatcher {
+
+	public static final String TAG = "TETHER -> LeaseWatcher";
+
+	public static final String LEASE_FILE = "dnsmasq.leases";
+	public static final String WHITELIST_FILE = "whitelist_mac.conf";
+
+	public static final int CHANGED_LEASES    = 1;
+	public static final int CHANGED_WHITELIST = 2;
+
+	// Quiet period after the last event (dnsmasq writes a lease-file in several steps)
+	public static final long DEBOUNCE = 250;
+
+	protected final String leaseFile;
+	protected final String whitelistFile;
+
+	private int changes = 0;
+	private long lastEvent = 0;
+
+	protected LeaseWatcher(String dataPath) {
+		this.leaseFile = dataPath+"/var/"+LEASE_FILE;
+		this.whitelistFile = dataPath+"/conf/"+WHITELIST_FILE;
+	}
+
+	/**
+	 * Returns an inotify-based watcher if the directories can be observed,
+	 * a polling one otherwise.
+	 */
+	public static LeaseWatcher create(String dataPath) {
+		if (new File(dataPath+"/var").isDirectory() && new File(dataPath+"/conf").isDirectory()) {
+			return new FileObserverLeaseWatcher(dataPath);
+		}
+		Log.d(TAG, "Data-directories not found - falling back to polling.");
+		return new PollingLeaseWatcher(dataPath);
+	}
+
+	public abstract void start();
+
+	public abstract void stop();
+
+	/**
+	 * Called while a consumer waits; polling implementations check the files here.
+	 */
+	protected void poll() {
+	}
+
+	/**
+	 * @return Interval at which poll() has to be called; 0 if events are pushed.
+	 */
+	protected long getPollInterval() {
+		return 0;
+	}
+
+	/**
+	 * Records a change; 'what' is CHANGED_LEASES and/or CHANGED_WHITELIST.
+	 */
+	protected synchronized void changed(int what) {
+		this.changes |= what;
+		this.lastEvent = System.currentTimeMillis();
+		this.notifyAll();
+	}
+
+	/**
+	 * Blocks until a change was reported and has settled, or 'timeout' elapsed.
+	 *
+	 * @return Bitmask of CHANGED_LEASES and CHANGED_WHITELIST; 0 on timeout.
+	 */
+	public synchronized int await(long timeout) throws InterruptedException {
+		long end = System.currentTimeMillis() + timeout;
+		long pollInterval = this.getPollInterval();
+		while (true) {
+			long now = System.currentTimeMillis();
+			if (this.changes != 0 && now - this.lastEvent >= DEBOUNCE) {
+				int result = this.changes;
+				this.changes = 0;
+				return result;
+			}
+			if (now >= end) {
+				return 0;
+			}
+			long wait = end - now;
+			if (this.changes != 0) {
+				wait = Math.min(wait, this.lastEvent + DEBOUNCE - now);
+			}
+			if (pollInterval > 0) {
+				wait = Math.min(wait, pollInterval);
+			}
+			this.wait(Math.max(wait, 1));
+			if (pollInterval > 0) {
+				this.poll();
+			}
+		}
+	}
+}
@@ -1,10 +1,16 @@
 package com.googlecode.android.wifi.tether.system;
 
+import java.nio.ByteBuffer;
+
 import android.util.Log;
 
 public class NativeTask {
     
 	public static final String MSG_TAG = "TETHER -> NativeTask";
+	
+	// Return-codes of exec() besides the exit-code
+	public static final int EXEC_FAILED  = -1;
+	public static final int EXEC_TIMEOUT = -2;
 
 	static {
         try {
@@ -17,4 +23,12 @@ public class NativeTask {
     }
     public static native String getProp(String name);
     public static native int runCommand(String command);
+    
+    /*
+     * Runs argv[0] without a shell; stdout and stderr are written to 'out' (a direct
+     * buffer, its position is set to the number of bytes). The process is killed
+     * after 'timeout' ms (0 = no timeout). Returns the exit-code, 128+signal,
+     * EXEC_TIMEOUT or EXEC_FAILED.
+     */
+    public static native int exec(String[] argv, long timeout, ByteBuffer out);
 }
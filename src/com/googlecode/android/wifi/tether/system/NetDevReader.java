@@ -0,0 +1,221 @@
+/**
+ *  This program is free software; you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 3 of the License, or (at your option) any later
+ *  version.
+ *  You should have received a copy of the GNU General Public License along with
+ *  this program; if not, see <http://www.gnu.org/licenses/>.
+ *  Use this application at your own risk.
+ *
+ *  Copyright (c) 2009 by Harald Mueller and Sofia Lemons.
+ */
+
+package com.googlecode.android.wifi.tether.system;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import android.util.Log;
+
+/**
+ * Byte-level parser for /proc/net/dev.
+ *
+ * The file is kept open and re-read from offset 0 on every call, the
+ * read-buffer is reused and all counters are written into a caller-supplied
+ * array. Once the buffer has grown to the size of the file a sample does
+ * not allocate anything.
+ */
+public class NetDevReader {
+
+	public static final String TAG = "TETHER -> NetDevReader";
+
+	public static final String PROC_NET_DEV = "/proc/net/dev";
+
+	// Counter-columns (in the order the kernel prints them)
+	public static final int RX_BYTES      = 0;
+	public static final int RX_PACKETS    = 1;
+	public static final int RX_ERRS       = 2;
+	public static final int RX_DROP       = 3;
+	public static final int RX_FIFO       = 4;
+	public static final int RX_FRAME      = 5;
+	public static final int RX_COMPRESSED = 6;
+	public static final int RX_MULTICAST  = 7;
+	public static final int TX_BYTES      = 8;
+	public static final int TX_PACKETS    = 9;
+	public static final int TX_ERRS       = 10;
+	public static final int TX_DROP       = 11;
+	public static final int TX_FIFO       = 12;
+	public static final int TX_COLLS      = 13;
+	public static final int TX_CARRIER    = 14;
+	public static final int TX_COMPRESSED = 15;
+
+	public static final int COLUMNS = 16;
+
+	private final String filename;
+	private RandomAccessFile file = null;
+	private byte[] buffer = new byte[2048];
+
+	// Cached byte-representation of the last requested device
+	private String device = null;
+	private byte[] deviceBytes = new byte[0];
+	private String otherDevice = null;
+	private byte[] otherDeviceBytes = new byte[0];
+
+	// Number of valid bytes in buffer
+	private int length = 0;
+
+	public NetDevReader() {
+		this(PROC_NET_DEV);
+	}
+
+	/**
+	 * @param filename - File in /proc/net/dev-format; allows reading recorded copies.
+	 */
+	public NetDevReader(String filename) {
+		this.filename = filename;
+	}
+
+	/**
+	 * Sums up the counters of all interfaces starting with 'device'.
+	 *
+	 * @param device - Interface-name (prefix), e.g. "wlan0"
+	 * @param counters - Array of at least COLUMNS elements; indexed by RX_BYTES, TX_BYTES, ...
+	 * @return Number of matching interfaces; 0 if none matched or the file was not readable.
+	 */
+	public synchronized int read(String device, long[] counters) {
+		for (int i = 0; i < COLUMNS; i++) {
+			counters[i] = 0;
+		}
+		if (device == null || device.length() == 0) {
+			return 0;
+		}
+		if (device.equals(this.device) == false) {
+			this.device = device;
+			this.deviceBytes = device.getBytes();
+		}
+		this.length = this.fill();
+		if (this.length <= 0) {
+			this.length = 0;
+			return 0;
+		}
+		return this.parse(this.buffer, this.length, this.deviceBytes, counters);
+	}
+
+	/**
+	 * Same as read(String, long[]) for two devices, based on a single read of the file.
+	 *
+	 * @return Number of interfaces matching 'device'; 'otherCounters' stays zero if 
+	 * 'otherDevice' is null or did not match.
+	 */
+	public synchronized int read(String device, long[] counters, String otherDevice, long[] otherCounters) {
+		int matches = this.read(device, counters);
+		for (int i = 0; i < COLUMNS; i++) {
+			otherCounters[i] = 0;
+		}
+		if (otherDevice == null || otherDevice.length() == 0 || this.file == null) {
+			return matches;
+		}
+		if (otherDevice.equals(this.otherDevice) == false) {
+			this.otherDevice = otherDevice;
+			this.otherDeviceBytes = otherDevice.getBytes();
+		}
+		// Buffer still holds the content read for 'device'
+		this.parse(this.buffer, this.length, this.otherDeviceBytes, otherCounters);
+		return matches;
+	}
+
+	public synchronized void close() {
+		if (this.file != null) {
+			try {
+				this.file.close();
+			} catch (IOException e) {
+				// nothing
+			}
+			this.file = null;
+		}
+	}
+
+	/**
+	 * Reads the whole file into the buffer, growing it if required.
+	 */
+	private int fill() {
+		try {
+			if (this.file == null) {
+				this.file = new RandomAccessFile(this.filename, "r");
+			}
+			this.file.seek(0);
+			int length = 0;
+			int count;
+			while ((count = this.file.read(this.buffer, length, this.buffer.length - length)) > 0) {
+				length += count;
+				if (length == this.buffer.length) {
+					byte[] grown = new byte[this.buffer.length * 2];
+					System.arraycopy(this.buffer, 0, grown, 0, length);
+					this.buffer = grown;
+				}
+			}
+			return length;
+		} catch (IOException e) {
+			Log.d(TAG, "Unable to read "+this.filename+" - Here is what I know: "+e.getMessage());
+			this.close();
+			return -1;
+		}
+	}
+
+	private int parse(byte[] data, int length, byte[] prefix, long[] counters) {
+		int matches = 0;
+		int pos = 0;
+		while (pos < length) {
+			// Skip leading blanks
+			while (pos < length && data[pos] == ' ') {
+				pos++;
+			}
+			int nameStart = pos;
+			// Header-lines do not have a ':' before the line ends
+			while (pos < length && data[pos] != ':' && data[pos] != '\n') {
+				pos++;
+			}
+			if (pos >= length || data[pos] == '\n') {
+				pos++;
+				continue;
+			}
+			boolean match = startsWith(data, nameStart, pos - nameStart, prefix);
+			pos++;
+			int column = 0;
+			while (pos < length && data[pos] != '\n') {
+				byte b = data[pos];
+				if (b >= '0' && b <= '9') {
+					long value = 0;
+					while (pos < length && data[pos] >= '0' && data[pos] <= '9') {
+						value = value * 10 + (data[pos] - '0');
+						pos++;
+					}
+					if (match && column < COLUMNS) {
+						counters[column] += value;
+					}
+					column++;
+				}
+				else {
+					pos++;
+				}
+			}
+			pos++;
+			if (match) {
+				matches++;
+			}
+		}
+		return matches;
+	}
+
+	private static boolean startsWith(byte[] data, int offset, int length, byte[] prefix) {
+		if (length < prefix.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (data[offset + i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,329 @@
+/**
+ *  This program is free software; you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 3 of the License, or (at your option) any later
+ *  version.
+ *  You should have received a copy of the GNU General Public License along with
+ *  this program; if not, see <http://www.gnu.org/licenses/>.
+ *  Use this application at your own risk.
+ *
+ *  Copyright (c) 2009 by Harald Mueller and Sofia Lemons.
+ */
+
+package com.googlecode.android.wifi.tether.system;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Records how long each phase of a tether start, stop or restart takes.
+ *
+ * The last SESSIONS sessions are kept in a ring-file (var/phase.trace):
+ *
+ *   header - {magic, version, number of sessions written}
+ *   slot   - {kind, final state, wall-clock start, total in ms, phase-count,
+ *             MAX_PHASES x {phase, offset from the start in ms, duration in ms}}
+ *
+ * Phases run by the StartupPipeline overlap, so the total is measured
+ * separately and is not the sum of the durations.
+ *
+ * Durations are measured with SystemClock.elapsedRealtime(), so clock
+ * changes during a start do not distort them.
+ */
+public class PhaseTracer {
+
+	public static final String TAG = "TETHER -> PhaseTracer";
+
+	// Session kinds
+	public static final int START       = 0;
+	public static final int STOP        = 1;
+	public static final int RESTART     = 2;
+	public static final int RECONFIGURE = 3;
+
+	// Phases
+	public static final int PHASE_INSTALL      = 0;
+	public static final int PHASE_4G_OFF       = 1;
+	public static final int PHASE_RADIOS_OFF   = 2;
+	public static final int PHASE_CONFIGURE    = 3;
+	public static final int PHASE_DRIVER       = 4;
+	public static final int PHASE_TETHER_START = 5;
+	public static final int PHASE_STATUS       = 6;
+	public static final int PHASE_MONITORS     = 7;
+	public static final int PHASE_4G_ON        = 8;
+	public static final int PHASE_FALLBACK     = 9;
+	public static final int PHASE_TETHER_STOP  = 10;
+	public static final int PHASE_RADIOS_ON    = 11;
+	public static final int PHASE_ADDRESS      = 12;
+	public static final int PHASE_HOSTAPD      = 13;
+	public static final int PHASE_NAT          = 14;
+	public static final int PHASE_DNSMASQ      = 15;
+
+	private static final String[] KIND_NAMES = { "Start", "Stop", "Restart", "Reconfigure" };
+	private static final String[] PHASE_NAMES = {
+		"Installing files",
+		"Disabling 4G",
+		"Disabling WiFi/Bluetooth",
+		"Writing configuration",
+		"Reloading driver",
+		"tether start",
+		"Checking tether.status",
+		"Starting monitors",
+		"Enabling 4G",
+		"Framework tethering",
+		"tether stop",
+		"Restoring WiFi/Bluetooth",
+		"Changing Ip-address",
+		"Restarting hostapd",
+		"Reloading NAT rules",
+		"Restarting dnsmasq",
+	};
+
+	private static final int SESSIONS   = 16;
+	private static final int MAX_PHASES = 16;
+
+	private static final int MAGIC   = 0x54505452;  // "TPTR"
+	private static final int VERSION = 2;
+
+	private static final int HEADER_SIZE = 16;
+	private static final int SLOT_SIZE   = 24 + MAX_PHASES * 12;
+
+	/**
+	 * One traced start/stop/restart; phases are timed back to back
+	 * (phase()) or recorded with their own start and end (record()).
+	 */
+	public static class Session {
+		private final PhaseTracer tracer;
+		private final int kind;
+		private final long timestamp;
+		private final int[] phases = new int[MAX_PHASES];
+		private final int[] offsets = new int[MAX_PHASES];
+		private final int[] durations = new int[MAX_PHASES];
+		private final long sessionStart;
+		private int count = 0;
+		private int state = 0;
+		private int total = 0;
+		private long phaseStart;
+		// Index of the phase timed by phase(); -1 if none
+		private int current = -1;
+
+		private Session(PhaseTracer tracer, int kind, long timestamp, long sessionStart) {
+			this.tracer = tracer;
+			this.kind = kind;
+			this.timestamp = timestamp;
+			this.sessionStart = sessionStart;
+			this.phaseStart = sessionStart;
+		}
+
+		/**
+		 * Ends the current phase (if any) and starts 'phase'.
+		 */
+		public synchronized void phase(int phase) {
+			long now = SystemClock.elapsedRealtime();
+			this.close(now);
+			if (this.add(phase, now, now)) {
+				this.current = this.count - 1;
+			}
+			this.phaseStart = now;
+		}
+
+		/**
+		 * Records a phase which ran from 'start' to 'end' (both
+		 * SystemClock.elapsedRealtime()); may be called from any thread.
+		 */
+		public synchronized void record(int phase, long start, long end) {
+			this.add(phase, start, end);
+		}
+
+		/**
+		 * Ends the current phase and stores the session.
+		 *
+		 * @param state - TetherService-state at the end of the session.
+		 */
+		public synchronized void end(int state) {
+			long now = SystemClock.elapsedRealtime();
+			this.close(now);
+			this.total = (int) (now - this.sessionStart);
+			this.state = state;
+			this.tracer.write(this);
+		}
+
+		private void close(long now) {
+			if (this.current >= 0) {
+				// Excess phases are accounted to the last one
+				this.durations[this.current] += (int) (now - this.phaseStart);
+			}
+		}
+
+		private boolean add(int phase, long start, long end) {
+			if (this.count >= MAX_PHASES) {
+				return false;
+			}
+			this.phases[this.count] = phase;
+			this.offsets[this.count] = (int) (start - this.sessionStart);
+			this.durations[this.count] = (int) (end - start);
+			this.count++;
+			return true;
+		}
+
+		public int getKind() {
+			return this.kind;
+		}
+
+		public String getKindName() {
+			return KIND_NAMES[this.kind];
+		}
+
+		public int getState() {
+			return this.state;
+		}
+
+		/**
+		 * @return Wall-clock time the session started.
+		 */
+		public long getTimestamp() {
+			return this.timestamp;
+		}
+
+		public int getPhaseCount() {
+			return this.count;
+		}
+
+		public int getPhase(int index) {
+			return this.phases[index];
+		}
+
+		/**
+		 * @return Milliseconds between the start of the session and the start of the phase.
+		 */
+		public int getOffset(int index) {
+			return this.offsets[index];
+		}
+
+		public int getDuration(int index) {
+			return this.durations[index];
+		}
+
+		/**
+		 * @return Milliseconds from begin() to end().
+		 */
+		public long getTotal() {
+			return this.total;
+		}
+	}
+
+	private final String filename;
+
+	public PhaseTracer(String filename) {
+		this.filename = filename;
+	}
+
+	public Session begin(int kind) {
+		return new Session(this, kind, System.currentTimeMillis(), SystemClock.elapsedRealtime());
+	}
+
+	public static String getPhaseName(int phase) {
+		return phase >= 0 && phase < PHASE_NAMES.length ? PHASE_NAMES[phase] : "Phase "+phase;
+	}
+
+	/**
+	 * @return Stored sessions, newest first.
+	 */
+	public synchronized ArrayList<Session> read() {
+		ArrayList<Session> sessions = new ArrayList<Session>();
+		if (new File(this.filename).exists() == false) {
+			return sessions;
+		}
+		RandomAccessFile file = null;
+		try {
+			file = new RandomAccessFile(this.filename, "r");
+			long written = this.readHeader(file);
+			for (long i = written - 1; i >= 0 && i >= written - SESSIONS; i--) {
+				file.seek(HEADER_SIZE + (i % SESSIONS) * SLOT_SIZE);
+				int kind = file.readInt();
+				int state = file.readInt();
+				long timestamp = file.readLong();
+				int total = file.readInt();
+				int count = file.readInt();
+				if (kind < 0 || kind >= KIND_NAMES.length || count < 0 || count > MAX_PHASES) {
+					continue;
+				}
+				Session session = new Session(this, kind, timestamp, 0);
+				session.state = state;
+				session.total = total;
+				session.count = count;
+				for (int j = 0; j < count; j++) {
+					session.phases[j] = file.readInt();
+					session.offsets[j] = file.readInt();
+					session.durations[j] = file.readInt();
+				}
+				sessions.add(session);
+			}
+		} catch (IOException e) {
+			Log.d(TAG, "Unable to read "+this.filename+" - Here is what I know: "+e.getMessage());
+		} finally {
+			close(file);
+		}
+		return sessions;
+	}
+
+	private synchronized void write(Session session) {
+		RandomAccessFile file = null;
+		try {
+			file = new RandomAccessFile(this.filename, "rw");
+			long written = this.readHeader(file);
+			if (written < 0) {
+				written = 0;
+			}
+			file.seek(HEADER_SIZE + (written % SESSIONS) * SLOT_SIZE);
+			file.writeInt(session.kind);
+			file.writeInt(session.state);
+			file.writeLong(session.timestamp);
+			file.writeInt(session.total);
+			file.writeInt(session.count);
+			for (int i = 0; i < MAX_PHASES; i++) {
+				file.writeInt(session.phases[i]);
+				file.writeInt(session.offsets[i]);
+				file.writeInt(session.durations[i]);
+			}
+			// The slot becomes visible with the counter
+			file.seek(0);
+			file.writeInt(MAGIC);
+			file.writeInt(VERSION);
+			file.writeLong(written + 1);
+			Log.d(TAG, session.getKindName()+" took "+session.getTotal()+" ms ("+session.count+" phases).");
+		} catch (IOException e) {
+			Log.d(TAG, "Unable to write "+this.filename+" - Here is what I know: "+e.getMessage());
+		} finally {
+			close(file);
+		}
+	}
+
+	/**
+	 * @return Number of sessions written; -1 if the file is empty or has an unknown layout.
+	 */
+	private long readHeader(RandomAccessFile file) throws IOException {
+		if (file.length() < HEADER_SIZE) {
+			return -1;
+		}
+		file.seek(0);
+		if (file.readInt() != MAGIC || file.readInt() != VERSION) {
+			return -1;
+		}
+		return file.readLong();
+	}
+
+	private static void close(RandomAccessFile file) {
+		if (file != null) {
+			try {
+				file.close();
+			} catch (IOException e) {
+				// nothing
+			}
+		}
+	}
+}
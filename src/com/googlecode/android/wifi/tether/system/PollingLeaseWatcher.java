@@ -0,0 +1,63 @@
+/**
+ *  This program is free software; you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 3 of the License, or (at your option) any later
+ *  version.
+ *  You should have received a copy of the GNU General Public License along with
+ *  this program; if not, see <http://www.gnu.org/licenses/>.
+ *  Use this application at your own risk.
+ *
+ *  Copyright (c) 2009 by Harald Mueller and Sofia Lemons.
+ */
+
+package com.googlecode.android.wifi.tether.system;
+
+import java.io.File;
+
+/**
+ * Fallback-watcher which compares the modification-times every POLL_INTERVAL.
+ */
+public class PollingLeaseWatcher extends LeaseWatcher {
+
+	public static final long POLL_INTERVAL = 3000;
+
+	private long timestampLeasefile = -1;
+	private long timestampWhitelistfile = -1;
+
+	public PollingLeaseWatcher(String dataPath) {
+		super(dataPath);
+	}
+
+	@Override
+	public void start() {
+		// Report the current state as first change
+		this.poll();
+	}
+
+	@Override
+	public void stop() {
+	}
+
+	@Override
+	protected long getPollInterval() {
+		return POLL_INTERVAL;
+	}
+
+	@Override
+	protected void poll() {
+		int what = 0;
+		long current = new File(this.leaseFile).lastModified();
+		if (current != this.timestampLeasefile) {
+			this.timestampLeasefile = current;
+			what |= CHANGED_LEASES;
+		}
+		current = new File(this.whitelistFile).lastModified();
+		if (current != this.timestampWhitelistfile) {
+			this.timestampWhitelistfile = current;
+			what |= CHANGED_WHITELIST;
+		}
+		if (what != 0) {
+			this.changed(what);
+		}
+	}
+}
@@ -0,0 +1,252 @@
+/**
+ *  This program is free software; you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 3 of the License, or (at your option) any later
+ *  version.
+ *  You should have received a copy of the GNU General Public License along with
+ *  this program; if not, see <http://www.gnu.org/licenses/>.
+ *  Use this application at your own risk.
+ *
+ *  Copyright (c) 2009 by Harald Mueller and Sofia Lemons.
+ */
+
+package com.googlecode.android.wifi.tether.system;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import android.util.SparseArray;
+
+/**
+ * Cache of the command-lines of all running processes, indexed by pid.
+ *
+ * A scan only reads the cmdline of pids which are not in the cache yet. An
+ * entry is identified by pid and start-time (field 22 of /proc/[pid]/stat);
+ * before a cached entry is reported as match its start-time is checked, so a
+ * recycled pid is never mistaken for the old process. Processes with a
+ * pid-file can be checked without scanning /proc at all.
+ */
+public class ProcessTable {
+
+	private static class Entry {
+		long startTime;
+		String cmdline;
+		// Scan-generation in which the pid was seen last
+		int generation;
+	}
+
+	private final String procPath;
+	private final SparseArray<Entry> entries = new SparseArray<Entry>();
+	private final byte[] buffer = new byte[4096];
+	private int generation = 0;
+
+	public ProcessTable() {
+		this("/proc");
+	}
+
+	public ProcessTable(String procPath) {
+		this.procPath = procPath;
+	}
+
+	/**
+	 * Scans /proc and returns true if the cmdline of any process contains 'processName'.
+	 */
+	public synchronized boolean isRunning(String processName) {
+		this.refresh();
+		for (int i = 0; i < this.entries.size(); i++) {
+			if (this.entries.valueAt(i).cmdline.contains(processName)) {
+				// Validating the candidate (pid may have been recycled since it was cached)
+				Entry entry = this.lookup(this.entries.keyAt(i));
+				if (entry != null && entry.cmdline.contains(processName)) {
+					return true;
+				}
+				// Entry got replaced or removed - start over at the same index
+				i = Math.min(i, this.entries.size()) - 1;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks the pid written to 'pidFile' first; scans /proc only if the
+	 * pid-file is missing or does not point to a matching process.
+	 */
+	public synchronized boolean isRunning(String processName, String pidFile) {
+		int length = this.read(pidFile);
+		if (length > 0) {
+			int pid = parsePid(this.buffer, length);
+			if (pid > 0) {
+				Entry entry = this.lookup(pid);
+				if (entry != null && entry.cmdline.contains(processName)) {
+					return true;
+				}
+			}
+		}
+		return this.isRunning(processName);
+	}
+
+	/**
+	 * Brings the cache in line with /proc; drops entries of exited processes.
+	 */
+	private void refresh() {
+		String[] names = new File(this.procPath).list();
+		if (names == null) {
+			return;
+		}
+		int current = ++this.generation;
+		for (String name : names) {
+			int pid = parsePid(name);
+			if (pid <= 0) {
+				continue;
+			}
+			Entry entry = this.entries.get(pid);
+			if (entry == null) {
+				entry = this.lookup(pid);
+			}
+			if (entry != null) {
+				entry.generation = current;
+			}
+		}
+		for (int i = this.entries.size() - 1; i >= 0; i--) {
+			if (this.entries.valueAt(i).generation != current) {
+				this.entries.removeAt(i);
+			}
+		}
+	}
+
+	/**
+	 * Returns the (validated) entry for 'pid'; reads cmdline if the pid is new
+	 * or has been recycled. Returns null if the process does not exist.
+	 */
+	private Entry lookup(int pid) {
+		long startTime = this.readStartTime(pid);
+		if (startTime < 0) {
+			this.entries.remove(pid);
+			return null;
+		}
+		Entry entry = this.entries.get(pid);
+		if (entry != null && entry.startTime == startTime) {
+			return entry;
+		}
+		entry = new Entry();
+		entry.startTime = startTime;
+		entry.generation = this.generation;
+		int length = this.read(this.procPath+"/"+pid+"/cmdline");
+		if (length > 0) {
+			// Arguments are separated by '\0'
+			for (int i = 0; i < length; i++) {
+				if (this.buffer[i] == 0) {
+					this.buffer[i] = ' ';
+				}
+			}
+			entry.cmdline = new String(this.buffer, 0, length).trim();
+		}
+		else {
+			entry.cmdline = "";
+		}
+		this.entries.put(pid, entry);
+		return entry;
+	}
+
+	/**
+	 * @return Field 22 (starttime) of /proc/[pid]/stat; -1 if not readable.
+	 */
+	private long readStartTime(int pid) {
+		int length = this.read(this.procPath+"/"+pid+"/stat");
+		if (length <= 0) {
+			return -1;
+		}
+		// comm (field 2) may contain blanks; counting starts after its closing ')'
+		int pos = length - 1;
+		while (pos >= 0 && this.buffer[pos] != ')') {
+			pos--;
+		}
+		if (pos < 0) {
+			return -1;
+		}
+		int field = 2;
+		pos++;
+		while (pos < length) {
+			if (this.buffer[pos] == ' ') {
+				field++;
+				pos++;
+				continue;
+			}
+			if (field == 22) {
+				long value = 0;
+				while (pos < length && this.buffer[pos] >= '0' && this.buffer[pos] <= '9') {
+					value = value * 10 + (this.buffer[pos] - '0');
+					pos++;
+				}
+				return value;
+			}
+			pos++;
+		}
+		return -1;
+	}
+
+	/**
+	 * Reads (at most the buffer-size of) 'filename' into the buffer.
+	 */
+	private int read(String filename) {
+		FileInputStream in = null;
+		try {
+			in = new FileInputStream(filename);
+			int length = 0;
+			int count;
+			while (length < this.buffer.length && (count = in.read(this.buffer, length, this.buffer.length - length)) > 0) {
+				length += count;
+			}
+			return length;
+		} catch (IOException e) {
+			return -1;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// nothing
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return pid if 'name' consists of digits only; -1 otherwise.
+	 */
+	private static int parsePid(String name) {
+		int length = name.length();
+		if (length == 0 || length > 9) {
+			return -1;
+		}
+		int pid = 0;
+		for (int i = 0; i < length; i++) {
+			char c = name.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			pid = pid * 10 + (c - '0');
+		}
+		return pid;
+	}
+
+	/**
+	 * @return pid in the first line of a pid-file; -1 if there is none.
+	 */
+	private static int parsePid(byte[] data, int length) {
+		int pid = 0;
+		int digits = 0;
+		for (int i = 0; i < length && digits < 10; i++) {
+			byte b = data[i];
+			if (b >= '0' && b <= '9') {
+				pid = pid * 10 + (b - '0');
+				digits++;
+			}
+			else if (digits > 0 || (b != ' ' && b != '\t')) {
+				break;
+			}
+		}
+		return digits > 0 && digits < 10 ? pid : -1;
+	}
+}
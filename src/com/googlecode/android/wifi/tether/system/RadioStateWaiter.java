@@ -0,0 +1,113 @@
+/**
+ *  This program is free software; you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 3 of the License, or (at your option) any later
+ *  version.
+ *  You should have received a copy of the GNU General Public License along with
+ *  this program; if not, see <http://www.gnu.org/licenses/>.
+ *  Use this application at your own risk.
+ *
+ *  Copyright (c) 2009 by Harald Mueller and Sofia Lemons.
+ */
+
+package com.googlecode.android.wifi.tether.system;
+
+import android.bluetooth.BluetoothAdapter;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.wifi.WifiManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Waits until WiFi and/or Bluetooth reached a target state.
+ *
+ * The waiter has to be registered before the state-change is requested, so
+ * no broadcast can be missed. Waiting is woken by the state-change
+ * broadcasts; the current state is also re-checked every POLL_INTERVAL in
+ * case the broadcasts are held up (they are delivered on the main thread).
+ */
+public class RadioStateWaiter extends BroadcastReceiver {
+
+	public static final String TAG = "TETHER -> RadioStateWaiter";
+
+	// Target-state if a radio does not matter
+	public static final int ANY = -1;
+
+	private static final long POLL_INTERVAL = 500;
+
+	private final Context context;
+	private final WifiManager wifiManager;
+	private final BluetoothAdapter btAdapter;
+	private boolean registered = false;
+
+	public RadioStateWaiter(Context context, WifiManager wifiManager, BluetoothAdapter btAdapter) {
+		this.context = context;
+		this.wifiManager = wifiManager;
+		this.btAdapter = btAdapter;
+	}
+
+	public synchronized void register() {
+		if (this.registered == false) {
+			IntentFilter filter = new IntentFilter(WifiManager.WIFI_STATE_CHANGED_ACTION);
+			filter.addAction(BluetoothAdapter.ACTION_STATE_CHANGED);
+			this.context.registerReceiver(this, filter);
+			this.registered = true;
+		}
+	}
+
+	public synchronized void unregister() {
+		if (this.registered) {
+			this.context.unregisterReceiver(this);
+			this.registered = false;
+		}
+	}
+
+	/**
+	 * @param wifiState - WifiManager.WIFI_STATE_ENABLED/DISABLED or ANY.
+	 * @param btState - BluetoothAdapter.STATE_ON/OFF or ANY.
+	 * @param timeout - Milliseconds to wait at most.
+	 * @return true if both radios reached their target state.
+	 */
+	public synchronized boolean await(int wifiState, int btState, long timeout) {
+		if (wifiState == ANY && btState == ANY) {
+			return true;
+		}
+		long start = SystemClock.elapsedRealtime();
+		long remaining = timeout;
+		while (this.reached(wifiState, btState) == false) {
+			if (remaining <= 0) {
+				Log.d(TAG, "Timeout ("+timeout+" ms) waiting for wifi-state "+wifiState+"/bt-state "+btState+
+						" - Here is what I know: wifi="+this.wifiManager.getWifiState()+
+						", bt="+(this.btAdapter != null ? this.btAdapter.getState() : ANY));
+				return false;
+			}
+			try {
+				this.wait(Math.min(remaining, POLL_INTERVAL));
+			} catch (InterruptedException e) {
+				return false;
+			}
+			remaining = timeout - (SystemClock.elapsedRealtime() - start);
+		}
+		Log.d(TAG, "Radios reached wifi-state "+wifiState+"/bt-state "+btState+" after "+
+				(SystemClock.elapsedRealtime() - start)+" ms");
+		return true;
+	}
+
+	@Override
+	public synchronized void onReceive(Context context, Intent intent) {
+		this.notifyAll();
+	}
+
+	private boolean reached(int wifiState, int btState) {
+		if (wifiState != ANY && this.wifiManager.getWifiState() != wifiState) {
+			return false;
+		}
+		if (btState != ANY && this.btAdapter != null && this.btAdapter.getState() != btState) {
+			return false;
+		}
+		return true;
+	}
+}
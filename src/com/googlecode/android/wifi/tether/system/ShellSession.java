@@ -0,0 +1,328 @@
+/**
+ *  This program is free software; you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 3 of the License, or (at your option) any later
+ *  version.
+ *  You should have received a copy of the GNU General Public License along with
+ *  this program; if not, see <http://www.gnu.org/licenses/>.
+ *  Use this application at your own risk.
+ *
+ *  Copyright (c) 2009 by Harald Mueller and Sofia Lemons.
+ */
+
+package com.googlecode.android.wifi.tether.system;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import android.util.Log;
+
+/**
+ * Long-lived shell (e.g. "su") which executes commands sent over stdin.
+ *
+ * Every command runs in a subshell with stdin from /dev/null. After the
+ * command the shell echoes a sentinel-marker with the exit-code to stdout and
+ * an end-marker to stderr; both streams are drained by reader-threads. Several
+ * commands can be written at once (pipelined) and their results are collected
+ * in order. Daemons started by a command may keep the shell's stdout/stderr
+ * open - this does not block anything since only the markers are waited for.
+ *
+ * Every command has to finish within a timeout (counted from the end of the
+ * previous one); otherwise the shell is killed. If the shell dies it is
+ * restarted with the next call. Commands which were already written to a dead
+ * shell are reported as failed - not re-sent, since they might have been
+ * executed in parts.
+ */
+public class ShellSession {
+
+	public static final String TAG = "TETHER -> ShellSession";
+
+	// Exit-code reported if the shell died or could not be started
+	public static final int EXIT_SHELL_FAILED = -1;
+	// Exit-code reported if the command did not finish in time
+	public static final int EXIT_TIMEOUT = -2;
+
+	// Timeout per command for run() without an explicit timeout
+	public static final long DEFAULT_TIMEOUT = 60000;
+
+	// Queued by StreamReader when the stream is closed (compared by identity)
+	private static final String EOF = new String("EOF");
+
+	public static class Result {
+		private final String command;
+		private final int exitCode;
+		private final String output;
+		private final String error;
+		private final long duration;
+
+		Result(String command, int exitCode, String output, String error, long duration) {
+			this.command = command;
+			this.exitCode = exitCode;
+			this.output = output;
+			this.error = error;
+			this.duration = duration;
+		}
+
+		public String getCommand() {
+			return this.command;
+		}
+
+		public int getExitCode() {
+			return this.exitCode;
+		}
+
+		/**
+		 * @return What the command wrote to stdout.
+		 */
+		public String getOutput() {
+			return this.output;
+		}
+
+		/**
+		 * @return What the command wrote to stderr (without trailing newlines).
+		 */
+		public String getError() {
+			return this.error;
+		}
+
+		/**
+		 * @return Milliseconds from the end of the previous command (or from
+		 * sending the batch) to the end of this one.
+		 */
+		public long getDuration() {
+			return this.duration;
+		}
+
+		public boolean isSuccess() {
+			return this.exitCode == 0;
+		}
+	}
+
+	private final String shell;
+	private final String marker;
+	private final String endMarker;
+	private Process process = null;
+	private OutputStream stdin = null;
+	private LinkedBlockingQueue<String> stdout = null;
+	private LinkedBlockingQueue<String> stderr = null;
+
+	public ShellSession(String shell) {
+		this.shell = shell;
+		this.marker = "__WTSHELL_"+Long.toHexString(new Random().nextLong() & Long.MAX_VALUE)+"__";
+		this.endMarker = this.marker+"END";
+	}
+
+	/**
+	 * Runs a single command.
+	 */
+	public Result run(String command) {
+		return this.run(new String[] { command }, DEFAULT_TIMEOUT)[0];
+	}
+
+	public Result run(String command, long timeout) {
+		return this.run(new String[] { command }, timeout)[0];
+	}
+
+	public Result[] run(String[] commands) {
+		return this.run(commands, DEFAULT_TIMEOUT);
+	}
+
+	/**
+	 * Writes all commands to the shell before reading the first result. If a
+	 * command takes longer than 'timeout' ms the shell is killed; that command
+	 * gets EXIT_TIMEOUT, the following ones EXIT_SHELL_FAILED.
+	 *
+	 * @return One result per command, in the same order.
+	 */
+	public synchronized Result[] run(String[] commands, long timeout) {
+		Result[] results = new Result[commands.length];
+		if (this.ensureStarted() == false) {
+			this.fail(commands, results, 0);
+			return results;
+		}
+		int received = 0;
+		try {
+			StringBuilder script = new StringBuilder();
+			for (String command : commands) {
+				// An empty subshell is a syntax-error
+				String body = command.trim().length() > 0 ? command : ":";
+				script.append("(").append(body).append("\n) </dev/null\n");
+				script.append("echo \"").append(this.marker).append(" $?\"\n");
+				script.append("echo \"").append(this.endMarker).append("\" >&2\n");
+			}
+			long start = System.currentTimeMillis();
+			this.stdin.write(script.toString().getBytes());
+			this.stdin.flush();
+
+			StringBuilder output = new StringBuilder();
+			StringBuilder error = new StringBuilder();
+			long deadline = start + timeout;
+			while (received < commands.length) {
+				String line = readLine(this.stdout, deadline);
+				int index = line.indexOf(this.marker);
+				if (index < 0) {
+					output.append(line).append('\n');
+					continue;
+				}
+				// Output without trailing newline ends up in front of the marker
+				output.append(line, 0, index);
+				int exitCode = parseExitCode(line, index + this.marker.length());
+				while (true) {
+					line = readLine(this.stderr, deadline);
+					// ... and stderr without trailing newline in front of the end-marker
+					index = line.indexOf(this.endMarker);
+					String text = index < 0 ? line : line.substring(0, index);
+					if (index < 0 || text.length() > 0) {
+						if (error.length() > 0) {
+							error.append('\n');
+						}
+						error.append(text);
+					}
+					if (index >= 0) {
+						break;
+					}
+				}
+				long now = System.currentTimeMillis();
+				results[received] = new Result(commands[received], exitCode, output.toString(), error.toString(), now - start);
+				received++;
+				start = now;
+				deadline = now + timeout;
+				output.setLength(0);
+				error.setLength(0);
+			}
+		} catch (TimeoutException e) {
+			Log.d(TAG, "Command timed out after "+timeout+"ms - killing shell '"+this.shell+"': "+commands[received]);
+			this.close();
+			results[received] = new Result(commands[received], EXIT_TIMEOUT, "", "", timeout);
+			this.fail(commands, results, received + 1);
+		} catch (IOException e) {
+			Log.d(TAG, "Shell '"+this.shell+"' failed - Here is what I know: "+e.getMessage());
+			this.close();
+			this.fail(commands, results, received);
+		}
+		return results;
+	}
+
+	public synchronized void close() {
+		if (this.stdin != null) {
+			try {
+				this.stdin.write("exit\n".getBytes());
+				this.stdin.flush();
+			} catch (IOException e) {
+				// nothing
+			}
+		}
+		if (this.process != null) {
+			this.process.destroy();
+			this.process = null;
+		}
+		this.stdin = null;
+		this.stdout = null;
+		this.stderr = null;
+	}
+
+	private static String readLine(LinkedBlockingQueue<String> lines, long deadline) throws IOException, TimeoutException {
+		String line;
+		try {
+			line = lines.poll(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the shell");
+		}
+		if (line == null) {
+			throw new TimeoutException();
+		}
+		if (line == EOF) {
+			throw new IOException("Shell terminated");
+		}
+		return line;
+	}
+
+	private void fail(String[] commands, Result[] results, int first) {
+		for (int i = first; i < commands.length; i++) {
+			results[i] = new Result(commands[i], EXIT_SHELL_FAILED, "", "", 0);
+		}
+	}
+
+	private boolean ensureStarted() {
+		if (this.process != null) {
+			try {
+				this.process.exitValue();
+				Log.d(TAG, "Shell '"+this.shell+"' has terminated - restarting.");
+				this.close();
+			} catch (IllegalThreadStateException e) {
+				// Still running
+				return true;
+			}
+		}
+		try {
+			this.process = new ProcessBuilder(this.shell).start();
+			this.stdin = this.process.getOutputStream();
+			this.stdout = new StreamReader(this.process.getInputStream()).lines;
+			this.stderr = new StreamReader(this.process.getErrorStream()).lines;
+			return true;
+		} catch (IOException e) {
+			Log.d(TAG, "Unable to start shell '"+this.shell+"' - Here is what I know: "+e.getMessage());
+			this.close();
+			return false;
+		}
+	}
+
+	private static int parseExitCode(String line, int start) {
+		int value = 0;
+		int digits = 0;
+		for (int i = start; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c >= '0' && c <= '9') {
+				value = value * 10 + (c - '0');
+				digits++;
+			}
+			else if (digits > 0) {
+				break;
+			}
+		}
+		return digits > 0 ? value : EXIT_SHELL_FAILED;
+	}
+
+	/**
+	 * Reads a stream line by line into a queue, so it can be waited for with a
+	 * timeout. Ends with EOF once the stream is closed.
+	 */
+	private static class StreamReader extends Thread {
+		final LinkedBlockingQueue<String> lines = new LinkedBlockingQueue<String>();
+		private final BufferedReader reader;
+
+		StreamReader(InputStream stream) {
+			this.reader = new BufferedReader(new InputStreamReader(stream), 8192);
+			this.setDaemon(true);
+			this.start();
+		}
+
+		@Override
+		public void run() {
+			try {
+				String line;
+				while ((line = this.reader.readLine()) != null) {
+					this.lines.add(line);
+				}
+			} catch (IOException e) {
+				// Closed
+			} finally {
+				try {
+					this.reader.close();
+				} catch (IOException e) {
+					// nothing
+				}
+				this.lines.add(EOF);
+			}
+		}
+	}
+}
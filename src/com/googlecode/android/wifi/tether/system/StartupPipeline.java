@@ -0,0 +1,164 @@
+/**
+ *  This program is free software; you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 3 of the License, or (at your option) any later
+ *  version.
+ *  You should have received a copy of the GNU General Public License along with
+ *  this program; if not, see <http://www.gnu.org/licenses/>.
+ *  Use this application at your own risk.
+ *
+ *  Copyright (c) 2009 by Harald Mueller and Sofia Lemons.
+ */
+
+package com.googlecode.android.wifi.tether.system;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Runs the steps of a tether start as a small dependency-graph.
+ *
+ * A step is submitted to a fixed pool of threads as soon as all steps it
+ * depends on succeeded, so independent steps (e.g. writing the configuration
+ * while waiting for WiFi to go down) overlap. Dependencies have to be added
+ * before the steps using them, which keeps the graph free of cycles.
+ * If a step fails, all steps depending on it are skipped.
+ */
+public class StartupPipeline {
+
+	public static final String TAG = "TETHER -> StartupPipeline";
+
+	public interface Step {
+		/**
+		 * @return false if the start has to be aborted.
+		 */
+		public boolean run();
+	}
+
+	private static class Node {
+		private final String name;
+		private final int phase;
+		private final Step step;
+		private final ArrayList<Node> dependents = new ArrayList<Node>();
+		// Number of dependencies which did not finish yet
+		private int pending;
+
+		private Node(String name, int phase, Step step, int pending) {
+			this.name = name;
+			this.phase = phase;
+			this.step = step;
+			this.pending = pending;
+		}
+	}
+
+	private final LinkedHashMap<String, Node> nodes = new LinkedHashMap<String, Node>();
+	private final PhaseTracer.Session trace;
+	private final int threads;
+	private ExecutorService executor = null;
+	private int finished = 0;
+	private String failed = null;
+
+	/**
+	 * @param trace - Session each step is recorded to (as 'phase').
+	 * @param threads - Maximum number of steps running at the same time.
+	 */
+	public StartupPipeline(PhaseTracer.Session trace, int threads) {
+		this.trace = trace;
+		this.threads = threads;
+	}
+
+	public synchronized void add(String name, int phase, Step step, String... dependencies) {
+		if (this.nodes.containsKey(name)) {
+			throw new IllegalArgumentException("Step "+name+" already added");
+		}
+		Node node = new Node(name, phase, step, dependencies.length);
+		for (String dependency : dependencies) {
+			Node parent = this.nodes.get(dependency);
+			if (parent == null) {
+				throw new IllegalArgumentException("Step "+name+" depends on unknown step "+dependency);
+			}
+			parent.dependents.add(node);
+		}
+		this.nodes.put(name, node);
+	}
+
+	/**
+	 * Runs all steps and blocks until every step finished or was skipped.
+	 *
+	 * @return Name of the first step which failed; null if all succeeded.
+	 */
+	public synchronized String run() {
+		this.executor = Executors.newFixedThreadPool(this.threads);
+		try {
+			for (Node node : this.nodes.values()) {
+				if (node.pending == 0) {
+					this.submit(node);
+				}
+			}
+			while (this.finished < this.nodes.size()) {
+				try {
+					this.wait();
+				} catch (InterruptedException e) {
+					Log.d(TAG, "Interrupted while waiting for the startup-steps - Here is what I know: "+e.getMessage());
+					return this.failed != null ? this.failed : "interrupted";
+				}
+			}
+		} finally {
+			this.executor.shutdown();
+		}
+		return this.failed;
+	}
+
+	private void submit(final Node node) {
+		this.executor.execute(new Runnable() {
+			public void run() {
+				long start = SystemClock.elapsedRealtime();
+				boolean success = false;
+				try {
+					success = node.step.run();
+				} catch (Exception e) {
+					Log.e(TAG, "Step "+node.name+" failed - Here is what I know: "+e.getMessage());
+				}
+				long end = SystemClock.elapsedRealtime();
+				StartupPipeline.this.trace.record(node.phase, start, end);
+				Log.d(TAG, "Step "+node.name+(success ? " done" : " failed")+" after "+(end - start)+" ms");
+				StartupPipeline.this.finish(node, success);
+			}
+		});
+	}
+
+	private synchronized void finish(Node node, boolean success) {
+		this.finished++;
+		if (success) {
+			for (Node dependent : node.dependents) {
+				if (--dependent.pending == 0) {
+					this.submit(dependent);
+				}
+			}
+		}
+		else {
+			if (this.failed == null) {
+				this.failed = node.name;
+			}
+			this.skip(node);
+		}
+		this.notifyAll();
+	}
+
+	private void skip(Node node) {
+		for (Node dependent : node.dependents) {
+			// A step depending on several failed steps is skipped once
+			if (dependent.pending > 0) {
+				dependent.pending = -1;
+				this.finished++;
+				Log.d(TAG, "Step "+dependent.name+" skipped ("+node.name+" failed)");
+				this.skip(dependent);
+			}
+		}
+	}
+}
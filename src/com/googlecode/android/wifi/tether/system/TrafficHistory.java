@@ -0,0 +1,241 @@
+/**
+ *  This program is free software; you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 3 of the License, or (at your option) any later
+ *  version.
+ *  You should have received a copy of the GNU General Public License along with
+ *  this program; if not, see <http://www.gnu.org/licenses/>.
+ *  Use this application at your own risk.
+ *
+ *  Copyright (c) 2009 by Harald Mueller and Sofia Lemons.
+ */
+
+package com.googlecode.android.wifi.tether.system;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.googlecode.android.wifi.tether.data.InterfaceStats;
+
+import android.util.Log;
+
+/**
+ * Traffic-history of the tether-interface, kept in a memory-mapped file
+ * (var/traffic.history) with three fixed-size rings:
+ *
+ *   SECONDS - one slot per sample (last hour)
+ *   MINUTES - rolled up from the seconds (last day)
+ *   HOURS   - rolled up from the minutes (last 30 days)
+ *
+ * A slot holds {timestamp, rxBytes, txBytes}; the byte-values are the traffic
+ * within the slot. Every ring has a sequence-number in the header, which is
+ * only advanced after a slot has been written completely. The slot at the
+ * write-position is never handed out, so a crash in the middle of a write
+ * cannot corrupt the visible history. Readers do not lock; they re-check the
+ * sequence-number after copying and retry if the writer overtook them.
+ */
+public class TrafficHistory {
+
+	public static final String TAG = "TETHER -> TrafficHistory";
+
+	public static final int SECONDS = 0;
+	public static final int MINUTES = 1;
+	public static final int HOURS   = 2;
+
+	private static final int[] SLOTS = { 3600, 1440, 720 };
+	private static final long[] SLOT_MILLIS = { 1000L, 60 * 1000L, 60 * 60 * 1000L };
+
+	private static final int MAGIC   = 0x54484953;  // "THIS"
+	private static final int VERSION = 1;
+
+	// Header-layout
+	private static final int OFFSET_MAGIC    = 0;
+	private static final int OFFSET_VERSION  = 4;
+	private static final int OFFSET_SEQUENCE = 8;   // 3 longs
+	private static final int OFFSET_ROLLUP   = 32;  // 2 x {start, rx, tx}
+	private static final int HEADER_SIZE     = 128;
+
+	private static final int SLOT_SIZE = 24;
+
+	private final String filename;
+	private RandomAccessFile file = null;
+	private volatile MappedByteBuffer buffer = null;
+	private final int[] ringOffset = new int[SLOTS.length];
+	// Published sequence-numbers (mirrors the header; read without locking)
+	private final AtomicLongArray sequence = new AtomicLongArray(SLOTS.length);
+
+	public TrafficHistory(String filename) {
+		this.filename = filename;
+		int offset = HEADER_SIZE;
+		for (int ring = 0; ring < SLOTS.length; ring++) {
+			this.ringOffset[ring] = offset;
+			offset += SLOTS[ring] * SLOT_SIZE;
+		}
+	}
+
+	/**
+	 * Maps the file; creates (or resets) it if it is missing or has an unknown layout.
+	 */
+	public synchronized boolean open() {
+		if (this.buffer != null) {
+			return true;
+		}
+		int size = this.ringOffset[SLOTS.length - 1] + SLOTS[SLOTS.length - 1] * SLOT_SIZE;
+		try {
+			this.file = new RandomAccessFile(this.filename, "rw");
+			boolean valid = this.file.length() == size;
+			this.file.setLength(size);
+			this.buffer = this.file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+			if (valid == false || this.buffer.getInt(OFFSET_MAGIC) != MAGIC || this.buffer.getInt(OFFSET_VERSION) != VERSION) {
+				Log.d(TAG, "Initializing "+this.filename);
+				for (int i = 0; i < HEADER_SIZE; i += 8) {
+					this.buffer.putLong(i, 0);
+				}
+				this.buffer.putInt(OFFSET_VERSION, VERSION);
+				this.buffer.putInt(OFFSET_MAGIC, MAGIC);
+				this.buffer.force();
+			}
+			for (int ring = 0; ring < SLOTS.length; ring++) {
+				this.sequence.set(ring, this.buffer.getLong(OFFSET_SEQUENCE + ring * 8));
+			}
+			return true;
+		} catch (IOException e) {
+			Log.d(TAG, "Unable to map "+this.filename+" - Here is what I know: "+e.getMessage());
+			this.close();
+			return false;
+		}
+	}
+
+	public synchronized void close() {
+		if (this.buffer != null) {
+			this.buffer.force();
+			this.buffer = null;
+		}
+		if (this.file != null) {
+			try {
+				this.file.close();
+			} catch (IOException e) {
+				// nothing
+			}
+			this.file = null;
+		}
+	}
+
+	/**
+	 * @return Number of slots which can be read from 'ring' at most.
+	 */
+	public static int capacity(int ring) {
+		return SLOTS[ring] - 1;
+	}
+
+	/**
+	 * Returns a listener which records the samples of an InterfaceStatsSampler.
+	 * Each recorder tracks its own previous snapshot.
+	 */
+	public InterfaceStatsSampler.Listener newRecorder() {
+		return new InterfaceStatsSampler.Listener() {
+			private long previousRx = -1;
+			private long previousTx = -1;
+
+			public void onSample(InterfaceStats stats) {
+				long rx = stats.getTetherRxBytes();
+				long tx = stats.getTetherTxBytes();
+				if (this.previousRx >= 0) {
+					// Counters restart with a new sampler
+					TrafficHistory.this.record(stats.getTimestamp(),
+							rx >= this.previousRx ? rx - this.previousRx : rx,
+							tx >= this.previousTx ? tx - this.previousTx : tx);
+				}
+				this.previousRx = rx;
+				this.previousTx = tx;
+			}
+		};
+	}
+
+	/**
+	 * Appends a per-second sample and rolls it up into minutes and hours.
+	 */
+	public synchronized void record(long timestamp, long rxBytes, long txBytes) {
+		if (this.buffer == null) {
+			return;
+		}
+		this.append(SECONDS, timestamp, rxBytes, txBytes);
+		if (this.rollup(MINUTES, timestamp, rxBytes, txBytes)) {
+			this.buffer.force();
+		}
+	}
+
+	/**
+	 * Copies the newest slots of 'ring' (oldest first) into the given arrays.
+	 * The number of slots requested is the length of 'timestamps'.
+	 *
+	 * @return Number of slots copied.
+	 */
+	public int read(int ring, long[] timestamps, long[] rxBytes, long[] txBytes) {
+		MappedByteBuffer buffer = this.buffer;
+		if (buffer == null) {
+			return 0;
+		}
+		int slots = SLOTS[ring];
+		for (int attempt = 0; attempt < 3; attempt++) {
+			long before = this.sequence.get(ring);
+			int count = (int) Math.min(Math.min(timestamps.length, slots - 1), before);
+			long first = before - count;
+			for (int i = 0; i < count; i++) {
+				int offset = this.ringOffset[ring] + (int) ((first + i) % slots) * SLOT_SIZE;
+				timestamps[i] = buffer.getLong(offset);
+				rxBytes[i] = buffer.getLong(offset + 8);
+				txBytes[i] = buffer.getLong(offset + 16);
+			}
+			// Writer may only have touched slots we did not copy
+			if (this.sequence.get(ring) - before <= slots - 1 - count) {
+				return count;
+			}
+		}
+		return 0;
+	}
+
+	private void append(int ring, long timestamp, long rxBytes, long txBytes) {
+		long next = this.sequence.get(ring);
+		int offset = this.ringOffset[ring] + (int) (next % SLOTS[ring]) * SLOT_SIZE;
+		this.buffer.putLong(offset, timestamp);
+		this.buffer.putLong(offset + 8, rxBytes);
+		this.buffer.putLong(offset + 16, txBytes);
+		// Publish the slot
+		this.buffer.putLong(OFFSET_SEQUENCE + ring * 8, next + 1);
+		this.sequence.set(ring, next + 1);
+	}
+
+	/**
+	 * Adds bytes to the open slot of 'ring'; closes the slot first if 'timestamp'
+	 * belongs to a later one. Closed minutes are rolled up into hours.
+	 *
+	 * @return true if a slot was closed
+	 */
+	private boolean rollup(int ring, long timestamp, long rxBytes, long txBytes) {
+		int offset = OFFSET_ROLLUP + (ring - 1) * 24;
+		long start = timestamp - (timestamp % SLOT_MILLIS[ring]);
+		long openStart = this.buffer.getLong(offset);
+		boolean closed = false;
+		if (openStart != start) {
+			if (openStart != 0) {
+				long openRx = this.buffer.getLong(offset + 8);
+				long openTx = this.buffer.getLong(offset + 16);
+				this.append(ring, openStart, openRx, openTx);
+				if (ring + 1 < SLOTS.length) {
+					this.rollup(ring + 1, openStart, openRx, openTx);
+				}
+				closed = true;
+			}
+			this.buffer.putLong(offset, start);
+			this.buffer.putLong(offset + 8, 0);
+			this.buffer.putLong(offset + 16, 0);
+		}
+		this.buffer.putLong(offset + 8, this.buffer.getLong(offset + 8) + rxBytes);
+		this.buffer.putLong(offset + 16, this.buffer.getLong(offset + 16) + txBytes);
+		return closed;
+	}
+}
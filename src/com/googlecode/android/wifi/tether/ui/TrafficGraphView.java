@@ -0,0 +1,111 @@
+/**
+ *  This program is free software; you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 3 of the License, or (at your option) any later
+ *  version.
+ *  You should have received a copy of the GNU General Public License along with
+ *  this program; if not, see <http://www.gnu.org/licenses/>.
+ *  Use this application at your own risk.
+ *
+ *  Copyright (c) 2009 by Harald Mueller and Sofia Lemons.
+ */
+
+package com.googlecode.android.wifi.tether.ui;
+
+import com.googlecode.android.wifi.tether.system.TrafficHistory;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * Draws download- and upload-throughput of the most recent slots of a
+ * TrafficHistory-ring. All buffers are allocated once, so refresh() can be
+ * called on every traffic-broadcast.
+ */
+public class TrafficGraphView extends View {
+
+	private static final int WINDOW = 300;  // Slots shown
+
+	private TrafficHistory history = null;
+	private int ring = TrafficHistory.SECONDS;
+
+	private final long[] timestamps = new long[WINDOW];
+	private final long[] rxBytes = new long[WINDOW];
+	private final long[] txBytes = new long[WINDOW];
+	private int count = 0;
+
+	private final Paint downPaint = new Paint();
+	private final Paint upPaint = new Paint();
+	private final Path path = new Path();
+
+	public TrafficGraphView(Context context, AttributeSet attrs) {
+		super(context, attrs);
+		this.downPaint.setColor(Color.rgb(0, 182, 39));
+		this.upPaint.setColor(Color.rgb(255, 34, 17));
+		for (Paint paint : new Paint[] { this.downPaint, this.upPaint }) {
+			paint.setAntiAlias(true);
+			paint.setStyle(Paint.Style.STROKE);
+			paint.setStrokeWidth(2);
+			paint.setAlpha(160);
+		}
+	}
+
+	/**
+	 * @param ring - TrafficHistory.SECONDS, MINUTES or HOURS
+	 */
+	public void setHistory(TrafficHistory history, int ring) {
+		this.history = history;
+		this.ring = ring;
+		this.refresh();
+	}
+
+	/**
+	 * Re-reads the window from the history and redraws.
+	 */
+	public void refresh() {
+		if (this.history != null) {
+			this.count = this.history.read(this.ring, this.timestamps, this.rxBytes, this.txBytes);
+		}
+		this.invalidate();
+	}
+
+	@Override
+	protected void onDraw(Canvas canvas) {
+		super.onDraw(canvas);
+		if (this.count < 2) {
+			return;
+		}
+		long max = 1;
+		for (int i = 0; i < this.count; i++) {
+			max = Math.max(max, Math.max(this.rxBytes[i], this.txBytes[i]));
+		}
+		// Download to the clients is sent on the tether-interface (tx); upload is received (rx)
+		this.drawLine(canvas, this.txBytes, max, this.downPaint);
+		this.drawLine(canvas, this.rxBytes, max, this.upPaint);
+	}
+
+	private void drawLine(Canvas canvas, long[] values, long max, Paint paint) {
+		float width = this.getWidth();
+		float height = this.getHeight() - paint.getStrokeWidth();
+		float step = width / (WINDOW - 1);
+		// Newest slot at the right edge
+		float x = width - (this.count - 1) * step;
+		this.path.rewind();
+		for (int i = 0; i < this.count; i++) {
+			float y = height - (height * values[i] / max);
+			if (i == 0) {
+				this.path.moveTo(x, y);
+			}
+			else {
+				this.path.lineTo(x, y);
+			}
+			x += step;
+		}
+		canvas.drawPath(this.path, paint);
+	}
+}